@@ -0,0 +1,251 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Append-only journal of the work completed in an archive run.  A line is
+ * written (and flushed) as each tool, page, file, or parser specific step
+ * finishes, so if the run dies the next run can be started with --resume
+ * and skip everything the journal says is already done.</p>
+ *
+ * <p>Lines are tab separated and start with the entry type:</p>
+ * <pre>
+ * TOOL  tool-name
+ * PAGE  file-path  url
+ * FILE  url  link-path  file-path
+ * STEP  key  value
+ * </pre>
+ *
+ * <p>Partial last lines (from a crash while writing) are removed when the
+ * journal is resumed.  This class is thread safe.</p>
+ */
+public class ArchiveJournal {
+
+    /** The journal file name in the site archive directory */
+    public static final String JOURNAL_FILE = ".journal";
+
+    public static final String TOOL = "TOOL";
+    public static final String PAGE = "PAGE";
+    public static final String FILE = "FILE";
+    public static final String STEP = "STEP";
+
+    /** The site archive directory */
+    private File base;
+    private PrintWriter out;
+    private Set<String> tools;
+    private Set<String> pages;
+    /** Map of URL to {link path, file path} */
+    private Map<String,String[]> files;
+    private Map<String,String> steps;
+
+    /**
+     * Create a journal for a site archive directory.
+     *
+     * @param base The site archive directory.
+     */
+    public ArchiveJournal( File base ) {
+        this.base = base;
+        tools = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+        pages = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+        files = new ConcurrentHashMap<String,String[]>();
+        steps = new ConcurrentHashMap<String,String>();
+    }
+    /**
+     * Open the journal for writing.
+     *
+     * @param resume If true, the existing journal is loaded and added to,
+     *        otherwise a new journal is started.
+     * @throws IOException
+     */
+    public synchronized void open( boolean resume ) throws IOException {
+        File file = getFile();
+        if ( resume ) {
+            truncatePartialLine(file);
+            load();
+        }
+        else if ( file.exists() ) {
+            file.delete();
+        }
+        base.mkdirs();
+        out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"));
+    }
+    /**
+     * Read the entries in the journal file (if there is one).
+     *
+     * @throws IOException
+     */
+    protected void load() throws IOException {
+        File file = getFile();
+        if ( ! file.exists() ) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ( (line = in.readLine()) != null ) {
+                String[] fields = line.split("\t", -1);
+                if ( fields[0].equals(TOOL) && fields.length == 2 ) {
+                    tools.add(fields[1]);
+                }
+                else if ( fields[0].equals(PAGE) && fields.length == 3 ) {
+                    pages.add(fields[1]);
+                }
+                else if ( fields[0].equals(FILE) && fields.length == 4 ) {
+                    files.put(fields[1], new String[] { fields[2], fields[3] });
+                }
+                else if ( fields[0].equals(STEP) && fields.length == 3 ) {
+                    steps.put(fields[1], fields[2]);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * Remove a partly written last line (from a crash while writing) so it
+     * is not loaded and new entries start on a line of their own.
+     *
+     * @param file
+     * @throws IOException
+     */
+    protected static void truncatePartialLine( File file ) throws IOException {
+        if ( ! file.exists() ) {
+            return;
+        }
+        RandomAccessFile journal = new RandomAccessFile(file, "rw");
+        try {
+            long end = journal.length();
+            while ( end > 0 ) {
+                journal.seek(end - 1);
+                if ( journal.read() == '\n' ) {
+                    break;
+                }
+                end--;
+            }
+            if ( end < journal.length() ) {
+                journal.setLength(end);
+            }
+        } finally {
+            journal.close();
+        }
+    }
+    public boolean isToolComplete( String tool ) {
+        return tools.contains(tool);
+    }
+    public void toolComplete( String tool ) {
+        tools.add(tool);
+        write(TOOL, tool);
+    }
+    /**
+     * Check if a page was saved.
+     *
+     * @param filepath The page file path relative to the archive base.
+     * @return True if the page was saved in this or a previous run.
+     */
+    public boolean isPageComplete( String filepath ) {
+        return pages.contains(filepath);
+    }
+    public void pageComplete( String filepath, URL url ) {
+        pages.add(filepath);
+        write(PAGE, filepath, url.toExternalForm());
+    }
+    /**
+     * Record a downloaded file.
+     *
+     * @param url The URL the file was downloaded from.
+     * @param linkPath The path links to the file are changed to.
+     * @param file The saved file.
+     */
+    public void fileComplete( URL url, String linkPath, File file ) {
+        String filePath = getRelativePath(file);
+        files.put(url.toExternalForm(), new String[] { linkPath, filePath });
+        write(FILE, url.toExternalForm(), linkPath, filePath);
+    }
+    /**
+     * Get the value recorded for a parser specific step.
+     *
+     * @param key A key unique to the step (e.g. tool name plus ids)
+     * @return The value or null if the step has not been completed.
+     */
+    public String getStep( String key ) {
+        return steps.get(key);
+    }
+    public void stepComplete( String key, String value ) {
+        steps.put(key, value);
+        write(STEP, key, value);
+    }
+    /**
+     * Add the files from the journal that are still on disk to the saved
+     * pages index so they are not downloaded again.
+     *
+     * @param index
+     * @return The number of files added.
+     */
+    public int preload( SavedPageIndex index ) {
+        int count = 0;
+        for ( Map.Entry<String,String[]> file: files.entrySet() ) {
+            if ( new File(base, file.getValue()[1]).exists() ) {
+                index.add(file.getKey(), file.getValue()[0]);
+                count++;
+            }
+        }
+        return count;
+    }
+    /**
+     * Append a line to the journal and flush it to disk.
+     *
+     * @param fields
+     */
+    protected synchronized void write( String... fields ) {
+        if ( out == null ) {
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        for ( int i = 0; i < fields.length; i++ ) {
+            if ( i > 0 ) {
+                line.append('\t');
+            }
+            line.append(fields[i].replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        }
+        out.println(line);
+        out.flush();
+    }
+    public synchronized void close() {
+        if ( out != null ) {
+            out.close();
+            out = null;
+        }
+    }
+    public File getFile() {
+        return new File(base, JOURNAL_FILE);
+    }
+    /**
+     * Get the path of a file relative to the archive directory.
+     *
+     * @param file
+     * @return The relative path using / separators.
+     */
+    protected String getRelativePath( File file ) {
+        String basePath = base.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if ( path.startsWith(basePath) ) {
+            path = path.substring(basePath.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+}
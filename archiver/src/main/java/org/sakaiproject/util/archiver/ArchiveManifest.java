@@ -0,0 +1,294 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+/**
+ * <p>Manifest of the files saved in a site archive.  Each entry records the
+ * URL, the local path (relative to the site archive directory), the ETag
+ * and Last-Modified headers the server sent, the size and a SHA-1 checksum.</p>
+ *
+ * <p>The manifest is written to the archive directory at the end of a run.
+ * When the incremental option is set, the previous archive is kept and its
+ * manifest is loaded so downloads can send If-None-Match and
+ * If-Modified-Since headers and skip files the server says have not
+ * changed.</p>
+ *
+ * <p>The file is plain text, one tab separated entry per line.  This class
+ * is thread safe.</p>
+ */
+public class ArchiveManifest {
+
+    /** The manifest file name in the site archive directory */
+    public static final String MANIFEST_FILE = ".manifest";
+    /** Value written for missing fields */
+    private static final String NONE = "-";
+
+    /** The site archive directory */
+    private File base;
+    /** Map of canonical URL to entry */
+    private ConcurrentMap<String,Entry> entries =
+            new ConcurrentHashMap<String,Entry>();
+
+    /**
+     * Information about one saved file.
+     */
+    public static class Entry {
+        private String url;
+        private String localPath;
+        private String etag;
+        private String lastModified;
+        private long size;
+        private String checksum;
+
+        public String getUrl() {
+            return url;
+        }
+        public void setUrl(String url) {
+            this.url = url;
+        }
+        public String getLocalPath() {
+            return localPath;
+        }
+        public void setLocalPath(String localPath) {
+            this.localPath = localPath;
+        }
+        public String getEtag() {
+            return etag;
+        }
+        public void setEtag(String etag) {
+            this.etag = etag;
+        }
+        public String getLastModified() {
+            return lastModified;
+        }
+        public void setLastModified(String lastModified) {
+            this.lastModified = lastModified;
+        }
+        public long getSize() {
+            return size;
+        }
+        public void setSize(long size) {
+            this.size = size;
+        }
+        public String getChecksum() {
+            return checksum;
+        }
+        public void setChecksum(String checksum) {
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Create an empty manifest for a site archive directory.
+     *
+     * @param base The site archive directory.
+     */
+    public ArchiveManifest( File base ) {
+        this.base = base;
+    }
+    /**
+     * Get the entry for a URL.
+     *
+     * @param url
+     * @return The entry or null if the URL is not in the manifest.
+     */
+    public Entry get( URL url ) {
+        return entries.get(SavedPageIndex.canonicalize(url.toExternalForm()));
+    }
+    /**
+     * Add or replace the entry for a file that was just saved.
+     *
+     * @param url The URL the file was downloaded from.
+     * @param file The saved file.
+     * @param etag The ETag header (may be null)
+     * @param lastModified The Last-Modified header (may be null)
+     * @param size The file size.
+     * @param checksum The hex SHA-1 checksum of the file.
+     */
+    public void update( URL url, File file, String etag, String lastModified,
+                        long size, String checksum ) {
+        Entry entry = new Entry();
+        entry.setUrl(url.toExternalForm());
+        entry.setLocalPath(getLocalPath(file));
+        entry.setEtag(etag);
+        entry.setLastModified(lastModified);
+        entry.setSize(size);
+        entry.setChecksum(checksum);
+        entries.put(SavedPageIndex.canonicalize(entry.getUrl()), entry);
+    }
+    /**
+     * Add If-None-Match and If-Modified-Since headers to the request if the
+     * URL is in the manifest and the file it was saved to still exists.
+     *
+     * @param request
+     * @param file The file the response will be saved to.
+     * @return True if conditional headers were added.
+     */
+    public boolean addConditionalHeaders( WebRequest request, File file ) {
+        Entry entry = get(request.getUrl());
+        if ( entry == null || ! file.exists() || file.length() != entry.getSize() ||
+             ! getLocalPath(file).equals(entry.getLocalPath()) ) {
+            return false;
+        }
+        boolean added = false;
+        if ( entry.getEtag() != null ) {
+            request.setAdditionalHeader("If-None-Match", entry.getEtag());
+            added = true;
+        }
+        if ( entry.getLastModified() != null ) {
+            request.setAdditionalHeader("If-Modified-Since", entry.getLastModified());
+            added = true;
+        }
+        return added;
+    }
+    /**
+     * Load the manifest file from the archive directory (if there is one).
+     *
+     * @throws IOException
+     */
+    public void load() throws IOException {
+        File file = new File(base, MANIFEST_FILE);
+        if ( ! file.exists() ) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ( (line = in.readLine()) != null ) {
+                if ( line.startsWith("#") || line.trim().equals("") ) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if ( fields.length < 6 ) {
+                    continue;
+                }
+                Entry entry = new Entry();
+                entry.setUrl(fields[0]);
+                entry.setLocalPath(fields[1]);
+                entry.setEtag(fromField(fields[2]));
+                entry.setLastModified(fromField(fields[3]));
+                entry.setSize(Long.parseLong(fields[4]));
+                entry.setChecksum(fromField(fields[5]));
+                entries.put(SavedPageIndex.canonicalize(entry.getUrl()), entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * Write the manifest file to the archive directory.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        List<String> keys = new ArrayList<String>(entries.keySet());
+        Collections.sort(keys);
+        base.mkdirs();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(base, MANIFEST_FILE)), "UTF-8"));
+        try {
+            out.println("# url\tlocal path\tetag\tlast modified\tsize\tsha1");
+            for ( String key: keys ) {
+                Entry entry = entries.get(key);
+                out.println(entry.getUrl() + "\t" + entry.getLocalPath() + "\t" +
+                        toField(entry.getEtag()) + "\t" +
+                        toField(entry.getLastModified()) + "\t" +
+                        entry.getSize() + "\t" + toField(entry.getChecksum()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+    public int size() {
+        return entries.size();
+    }
+    /**
+     * Get the path of a file relative to the archive directory.
+     *
+     * @param file
+     * @return The relative path using / separators.
+     */
+    protected String getLocalPath( File file ) {
+        String basePath = base.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if ( path.startsWith(basePath) ) {
+            path = path.substring(basePath.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+    private static String toField( String value ) {
+        if ( value == null || value.equals("") ) {
+            return NONE;
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+    private static String fromField( String value ) {
+        return NONE.equals(value) ? null : value;
+    }
+    /**
+     * Create the digest used for file checksums.
+     *
+     * @return A new SHA-1 digest.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    /**
+     * Calculate the checksum of a file.
+     *
+     * @param file
+     * @return The hex SHA-1 checksum.
+     * @throws IOException
+     */
+    public static String checksum( File file ) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ( (count = in.read(buffer)) != -1 ) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+    /**
+     * Convert digest bytes to lower case hex.
+     *
+     * @param bytes
+     * @return The hex string.
+     */
+    public static String toHex( byte[] bytes ) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for ( byte b: bytes ) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
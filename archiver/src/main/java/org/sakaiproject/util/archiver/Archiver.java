@@ -14,6 +14,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import org.apache.commons.io.FileUtils;
@@ -62,6 +67,27 @@ public class Archiver {
 	public static final String DOWNLOAD_STUDENT_PICTURES = "download.student.pictures";
 	public static final String PARSE_QUESTION_POOL = "parse.question.pool";
 	public static final String OUTPUT_VERBOSITY = "output.verbosity";
+	public static final String DOWNLOAD_THREADS = "download.threads";
+	public static final String BATCH_THREADS = "batch.threads";
+	public static final String PARALLEL_TOOLS = "parallel.tools";
+	public static final String TOOL_THREADS = "tool.threads";
+	public static final String VALIDATE_CSS_IMAGE_TYPES = "validate.css.image.types";
+	public static final String INCREMENTAL = "incremental";
+	public static final String SESSION_POOL_SIZE = "session.pool.size";
+	public static final String FORUMS_FLAT_VIEW = "forums.flat.view";
+	public static final String SAMIGO_STUDENT_THREADS = "samigo.student.threads";
+	public static final String ASSIGNMENTS_THREADS = "assignments.threads";
+	public static final String RESOURCES_WEBDAV = "resources.webdav";
+	public static final String WEBDAV_BASE_URL = "webdav.base.url";
+	public static final String RESOURCES_ZIP = "resources.zip";
+	public static final String RESOURCES_ZIP_URL = "resources.zip.url";
+	public static final String SAMIGO_QTI_EXPORT = "samigo.qti.export";
+	public static final String SAMIGO_QTI_SCRAPE_PAGES = "samigo.qti.scrape.pages";
+	public static final String SAMIGO_QTI_ASSESSMENT_URL = "samigo.qti.assessment.url";
+	public static final String SAMIGO_QTI_POOL_URL = "samigo.qti.pool.url";
+	public static final String GRADEBOOK_EXPORT_ONLY = "gradebook.export.only";
+	public static final String RUN_REPORT = "run.report";
+	public static final String METRICS_TEXTFILE_DIR = "metrics.textfile.dir";
 
     // Input arguments and options
 	private String site;
@@ -78,13 +104,26 @@ public class Archiver {
     // Working vars.
     private HtmlPage homePage;
     private WebClient webClient;
+    private FileDownloader fileDownloader;
+    private StreamingDownloader streamingDownloader;
+    private WebClientPool webClientPool;
+    /** Manifest of downloaded files, used for incremental archives */
+    private ArchiveManifest manifest;
+    /** Journal of completed work, used to resume a failed run */
+    private ArchiveJournal journal;
+    private boolean resume;
+    private boolean finalized;
+    /** Timing and byte counts per tool and phase */
+    private RunMetrics metrics = new RunMetrics();
     private List<ToolParser> siteTools;
     /**
-     * List of support pages (css, js, images, and the like) that have been
+     * Index of support pages (css, js, images, and the like) that have been
      * saved already.
      */
-    private List<String> savedPages;
+    private SavedPageIndex savedPages;
     private int outputVerbosity = -1001;
+    /** Prefix added to messages (e.g. site id when archiving in batch mode). */
+    private String messagePrefix = "";
     /**
      * The host name of the site (used by JS for filtering.)
      */
@@ -114,6 +153,15 @@ public class Archiver {
 	 * @param args
 	 */
 	public static void main(String[] args) {
+    	if ( args != null && args.length > 0 && args[0].equals("--batch") ) {
+    		BatchArchiver.main(Arrays.copyOfRange(args, 1, args.length));
+    		return;
+    	}
+    	boolean resume = false;
+    	if ( args != null && args.length > 0 && args[0].equals("--resume") ) {
+    		resume = true;
+    		args = Arrays.copyOfRange(args, 1, args.length);
+    	}
     	if ( args == null || args.length < 2 ) {
     		Archiver.usage("Missing arguments");
     		return;
@@ -133,18 +181,32 @@ public class Archiver {
             optionsFile = args[2];
         }
         Archiver archiver = new Archiver(site, cookie, optionsFile);
+        archiver.setResume(resume);
         int rc = 0;
+        String error = null;
+        long start = System.currentTimeMillis();
         try {
             archiver.initialize();
             archiver.execute();
-            archiver.finalize();
+            error = RunReport.getToolFailureError(archiver.getMetrics());
+            if ( error != null ) {
+                rc = 1;
+                System.out.println("Sakai Archiver did not succeed: " + error + ".");
+            }
         } catch ( Exception e ) {
             e.printStackTrace();
             rc = 1;
+            error = e.toString();
             System.out.println("Sakai Archiver did not succeed!.");
         } finally {
-        	archiver.finalize();
+            // Report once the downloads are in but before finalize closes
+            // the journal and manifest.
+            archiver.awaitDownloads();
+            archiver.writeReport(rc == 0, error, System.currentTimeMillis() - start);
+            archiver.finalize();
         }
+        System.out.println("Timing breakdown:");
+        System.out.print(archiver.getMetrics().getReport());
         if ( rc == 0 ) {
             System.out.println("Sakai Archiver finished successfully.");
         }
@@ -157,7 +219,8 @@ public class Archiver {
 	 */
     static public void usage( String msg ) {
     	System.err.println(msg);
-    	System.err.println("Usage: SakaiArchiver site cookie (optional properties-file)");
+    	System.err.println("Usage: SakaiArchiver (optional --resume) site cookie (optional properties-file)");
+    	System.err.println("   or: SakaiArchiver --batch site-list-file cookie (optional properties-file)");
     }
 
     /**
@@ -179,6 +242,13 @@ public class Archiver {
         setSiteHost(siteURL.getHost());
 
         initWebClient();
+        int downloadThreads = Integer.parseInt(getOption(DOWNLOAD_THREADS));
+        setStreamingDownloader(new StreamingDownloader(getWebClient(),
+                downloadThreads + 1));
+        getStreamingDownloader().setMetrics(getMetrics());
+        setFileDownloader(new FileDownloader(this, downloadThreads));
+        setWebClientPool(new WebClientPool(this,
+                Integer.parseInt(getOption(SESSION_POOL_SIZE))));
         copyResources();
 
         // Set the home page to start from
@@ -196,15 +266,120 @@ public class Archiver {
         PageInfo pInfo = new PageInfo( getHomePage() );
     	setSitePages( new PageTree<PageInfo>( pInfo ) );
         locateTools();
+        if ( Boolean.parseBoolean(getOption(PARALLEL_TOOLS)) ) {
+            executeParallel();
+            return;
+        }
         for( ToolParser tool: getSiteTools()) {
         	tool.parse(this);
         }
     }
     /**
-     * Clean up before exiting.
+     * Parse the site tools on a thread pool.  The home page tool is parsed
+     * first, then the other tools are run at the same time, each with a
+     * WebClient checked out of the session pool.
+     *
+     * @throws Exception
+     */
+    public void executeParallel() throws Exception {
+        List<ToolParser> tools = new ArrayList<ToolParser>(getSiteTools());
+        if ( ! tools.isEmpty() ) {
+            tools.remove(0).parse(this);
+        }
+        int threads = Integer.parseInt(getOption(TOOL_THREADS));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        try {
+            for( final ToolParser tool: tools ) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        WebClient client = getWebClientPool().checkout();
+                        tool.setWebClient(client);
+                        try {
+                            tool.parse(Archiver.this);
+                        } finally {
+                            tool.setWebClient(null);
+                            getWebClientPool().release(client);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for ( Future<Object> result: results ) {
+                try {
+                    result.get();
+                } catch ( ExecutionException e ) {
+                    if ( e.getCause() instanceof Exception ) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    /**
+     * Wait for the queued file downloads to finish so their metrics are
+     * complete.  finalize also does this, so calling it is optional.
+     */
+    public void awaitDownloads() {
+        if ( getFileDownloader() != null ) {
+            getFileDownloader().shutdown();
+        }
+    }
+    /**
+     * Clean up before exiting.  Only the first call does anything (this is
+     * also Object.finalize, so the garbage collector may call it again).
+     */
+    public synchronized void finalize() {
+        if ( finalized ) {
+            return;
+        }
+        finalized = true;
+        if ( getFileDownloader() != null ) {
+            getFileDownloader().shutdown();
+        }
+        if ( getStreamingDownloader() != null ) {
+            getStreamingDownloader().close();
+        }
+        if ( getWebClientPool() != null ) {
+            msg(getWebClientPool().getStats(), DEBUG);
+            getWebClientPool().shutdown();
+        }
+        if ( getJournal() != null ) {
+            getJournal().close();
+        }
+        if ( getManifest() != null ) {
+            try {
+                getManifest().save();
+            } catch ( IOException e ) {
+                msg("Could not save the archive manifest: " + e.getMessage(), ERROR);
+            }
+        }
+        if ( getWebClient() != null ) {
+            getWebClient().closeAllWindows();
+        }
+    }
+    /**
+     * Write the JSON run report and Prometheus text file for the site (if
+     * the run.report option is set).  Errors are reported but not thrown.
+     *
+     * @param success True if the run finished without an error.
+     * @param error The error (null if none).
+     * @param elapsedMillis The run's wall time.
      */
-    public void finalize() {
-    	getWebClient().closeAllWindows();
+    public void writeReport( boolean success, String error, long elapsedMillis ) {
+        if ( getOptions() == null || ! Boolean.parseBoolean(getOption(RUN_REPORT)) ) {
+            return;
+        }
+        RunReport report = new RunReport(getSite(), getMetrics(), success, error,
+                elapsedMillis);
+        try {
+            report.write(new File(getBasePath()), getOption(METRICS_TEXTFILE_DIR));
+        } catch ( IOException e ) {
+            msg("Could not write the run report: " + e.getMessage(), ERROR);
+        }
     }
     /**
      * Loads the options which define the archive location, base sakai URL, and
@@ -245,29 +420,67 @@ public class Archiver {
      */
     public boolean initArchiveBasePath() throws IOException {
     	File base = new File(getBasePath());
-    	if ( base.exists() ) {
+    	setManifest(new ArchiveManifest(base));
+    	if ( isIncremental() || isResume() ) {
+    	    getManifest().load();
+    	    msg("Keeping previous archive, " + getManifest().size() +
+    	            " files in previous manifest.", NORMAL);
+    	}
+    	else if ( base.exists() ) {
     		FileUtils.deleteDirectory(base);
     	}
     	base.mkdirs();
+    	setJournal(new ArchiveJournal(base));
+    	getJournal().open(isResume());
+    	if ( isResume() ) {
+    	    int count = getJournal().preload(getSavedPages());
+    	    msg("Resuming previous run, " + count +
+    	            " files already downloaded.", NORMAL);
+    	}
     	return true;
     }
+    /**
+     * Check if the previous archive should be kept and only changed files
+     * downloaded.
+     *
+     * @return True if the incremental option is set.
+     */
+    public boolean isIncremental() {
+        return Boolean.parseBoolean(getOption(INCREMENTAL));
+    }
     /**
      * Initialize the WebClient
      * @throws MalformedURLException 
      */
     public void initWebClient() throws MalformedURLException {
+        java.util.logging.Logger.getLogger("com.gargoylesoftware.htmlunit").setLevel(Level.SEVERE);
+        java.util.logging.Logger.getLogger("com.gargoylesoftware.htmlunit.javascript.StrictErrorReporter").setLevel(Level.OFF);
+        setWebClient(createWebClient());
+    }
+    /**
+     * Create a new WebClient that uses the Sakai session cookie.  If the main
+     * WebClient has been created, any cookies it has picked up (e.g. load
+     * balancer cookies) will be copied as well.
+     *
+     * @return A new WebClient object.
+     */
+    public WebClient createWebClient() {
         WebClient webClient = new WebClient(BrowserVersion.FIREFOX_38);
-        
+
         CookieManager cookieManager = webClient.getCookieManager();
         cookieManager.setCookiesEnabled(true);
+        if ( getWebClient() != null ) {
+            for ( Cookie cookie: getWebClient().getCookieManager().getCookies() ) {
+                cookieManager.addCookie(cookie);
+            }
+        }
         Cookie sakaiCookie = new Cookie(getSiteHost(), "JSESSIONID", getCookie(), "/", 999999, true);
         cookieManager.addCookie(sakaiCookie);
 
         webClient.getOptions().setRedirectEnabled(true);
         webClient.getOptions().setThrowExceptionOnScriptError(false);
-        java.util.logging.Logger.getLogger("com.gargoylesoftware.htmlunit").setLevel(Level.SEVERE);
-        java.util.logging.Logger.getLogger("com.gargoylesoftware.htmlunit.javascript.StrictErrorReporter").setLevel(Level.OFF);
-        setWebClient(webClient);
+        new TimingWebConnection(webClient, getMetrics());
+        return webClient;
     }
 
     /**
@@ -355,7 +568,7 @@ public class Archiver {
                     prefix = "DEBUG:  ";
                     break;
     	    }
-    		System.out.println(prefix + msg);
+    		System.out.println(getMessagePrefix() + prefix + msg);
     	}
     }
     /**
@@ -406,6 +619,91 @@ public class Archiver {
     public void setWebClient(WebClient webClient) {
         this.webClient = webClient;
     }
+    /**
+     * Get the downloader used to fetch binary files in the background.
+     *
+     * @return The downloader (null until initialize is called).
+     */
+    public FileDownloader getFileDownloader() {
+        return fileDownloader;
+    }
+
+    public void setFileDownloader(FileDownloader fileDownloader) {
+        this.fileDownloader = fileDownloader;
+    }
+    /**
+     * Get the downloader used to stream large files straight to disk.
+     *
+     * @return The downloader (null until initialize is called).
+     */
+    public StreamingDownloader getStreamingDownloader() {
+        return streamingDownloader;
+    }
+
+    public void setStreamingDownloader(StreamingDownloader streamingDownloader) {
+        this.streamingDownloader = streamingDownloader;
+    }
+    /**
+     * Get the pool of WebClients for loading pages on other threads.
+     *
+     * @return The pool (null until initialize is called).
+     */
+    public WebClientPool getWebClientPool() {
+        return webClientPool;
+    }
+
+    public void setWebClientPool(WebClientPool webClientPool) {
+        this.webClientPool = webClientPool;
+    }
+    /**
+     * Get the manifest of downloaded files.
+     *
+     * @return The manifest (null until initialize is called).
+     */
+    public ArchiveManifest getManifest() {
+        return manifest;
+    }
+
+    public void setManifest(ArchiveManifest manifest) {
+        this.manifest = manifest;
+    }
+    /**
+     * Get the journal of completed work.
+     *
+     * @return The journal (null until initialize is called).
+     */
+    public ArchiveJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(ArchiveJournal journal) {
+        this.journal = journal;
+    }
+    /**
+     * Get the run's timing and byte counts.
+     *
+     * @return The metrics.
+     */
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+    /**
+     * Check if work recorded in the journal by a previous run should be
+     * skipped.
+     *
+     * @return True if the --resume option was given.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
     /**
      * Get the site argument value.
      *
@@ -525,13 +823,19 @@ public class Archiver {
 	public void setSiteTools(List<ToolParser> siteTools) {
 		this.siteTools = siteTools;
 	}
-	public List<String> getSavedPages() {
+	/**
+	 * Get the index of saved pages and support files.  The index is keyed by
+	 * canonical URL and can be shared by parsers running in parallel.
+	 *
+	 * @return Always returns an object.
+	 */
+	public synchronized SavedPageIndex getSavedPages() {
 		if ( savedPages == null ) {
-			savedPages = new ArrayList<String>();
+			savedPages = new SavedPageIndex();
 		}
 		return savedPages;
 	}
-	public void setSavedPages(List<String> savedPages) {
+	public void setSavedPages(SavedPageIndex savedPages) {
 		this.savedPages = savedPages;
 	}
 	/**
@@ -550,6 +854,12 @@ public class Archiver {
 	public void setOutputVerbosity(int outputVerbosity) {
 		this.outputVerbosity = outputVerbosity;
 	}
+	public String getMessagePrefix() {
+		return messagePrefix;
+	}
+	public void setMessagePrefix(String messagePrefix) {
+		this.messagePrefix = messagePrefix;
+	}
     public String getSiteHost() {
         return siteHost;
     }
@@ -561,7 +871,7 @@ public class Archiver {
      * Will populate itself if not set from the options file.
      * @return
      */
-    public List<String> getFileExtensions() {
+    public synchronized List<String> getFileExtensions() {
         if ( fileExtensions == null ) {
             String[] exts = getOption(BINARY_FILE_EXTENSIONS).split("\\s*[,]\\s*");
             fileExtensions = new ArrayList<String>(Arrays.asList(exts));
@@ -0,0 +1,105 @@
+package org.sakaiproject.util.archiver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <p>Java Flight Recorder events for the archiver's fetch, rewrite and save
+ * phases, so allocation and CPU samples in a recording can be tied to the
+ * tool, page and file being worked on.</p>
+ *
+ * <p>The events cost almost nothing unless a recording with them enabled
+ * is running, e.g.</p>
+ * <pre>java -XX:StartFlightRecording=filename=archive.jfr -jar [jarfile] ...</pre>
+ * <p>Values that take work to compute (like byte counts from disk) are only
+ * filled in when the event will be recorded (shouldCommit).</p>
+ */
+public class ArchiverEvents {
+
+    public static final String CATEGORY = "Sakai Archiver";
+
+    /**
+     * A tool page loaded by ToolParser (loadPage, loadToolMainPage or
+     * resetTool), including HtmlUnit's parsing and JavaScript.
+     */
+    @Name("org.sakaiproject.archiver.PageLoad")
+    @Label("Page Load")
+    @Category(CATEGORY)
+    @Description("A tool page loaded by a ToolParser")
+    public static class PageLoad extends Event {
+        @Label("Operation")
+        public String operation;
+        @Label("Tool")
+        public String tool;
+        @Label("URL")
+        public String url;
+        @Label("Response Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * A page saved by PageSaver.save (all stages).
+     */
+    @Name("org.sakaiproject.archiver.PageSave")
+    @Label("Page Save")
+    @Category(CATEGORY)
+    @Description("A page saved with its css, javascript, images, files and iframes")
+    public static class PageSave extends Event {
+        @Label("Tool")
+        public String tool;
+        @Label("URL")
+        public String url;
+        @Label("Local Path")
+        public String localPath;
+        @Label("HTML Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * One stage of PageSaver.save (parseCss, parseJavascript, parseImages,
+     * parseFiles, parseIframes or rewrite).
+     */
+    @Name("org.sakaiproject.archiver.PageSaveStage")
+    @Label("Page Save Stage")
+    @Category(CATEGORY)
+    @Description("One stage of saving a page")
+    public static class PageSaveStage extends Event {
+        @Label("Stage")
+        public String stage;
+        @Label("Tool")
+        public String tool;
+        @Label("URL")
+        public String url;
+        @Label("Local Path")
+        public String localPath;
+        @Label("Links")
+        public int links;
+        @Label("Size")
+        @Description("Local size of the stage's files, or the HTML size for rewrite")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * Content (HTML, CSS or JavaScript) written by saveContentString.
+     */
+    @Name("org.sakaiproject.archiver.ContentWrite")
+    @Label("Content Write")
+    @Category(CATEGORY)
+    @Description("HTML, CSS or JavaScript written to the archive")
+    public static class ContentWrite extends Event {
+        @Label("Tool")
+        public String tool;
+        @Label("Local Path")
+        public String localPath;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+}
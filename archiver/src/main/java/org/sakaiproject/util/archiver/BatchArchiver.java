@@ -0,0 +1,281 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Archives a list of sites, several at a time.  Each site is archived by
+ * its own Archiver object so every worker has its own WebClient, base path,
+ * and tool parsers.</p>
+ *
+ * <p>The site list file has one site per line.  Each line is the site id,
+ * optionally followed by whitespace and a cookie to use for that site.
+ * Blank lines and lines starting with # are ignored.  Sites without a cookie
+ * use the default cookie argument.</p>
+ *
+ * <p>The number of sites archived at the same time is set by the
+ * batch.threads property.</p>
+ */
+public class BatchArchiver {
+
+    private String siteListFile;
+    private String defaultCookie;
+    private String optionsFile;
+    private List<String[]> sites;
+    /** Timing and byte counts for all the sites */
+    private RunMetrics metrics = new RunMetrics();
+
+    /**
+     * Result of archiving one site.
+     */
+    public static class SiteResult {
+        private String site;
+        private boolean success;
+        private long elapsed;
+        private String error;
+
+        public String getSite() {
+            return site;
+        }
+        public boolean isSuccess() {
+            return success;
+        }
+        public long getElapsed() {
+            return elapsed;
+        }
+        public String getError() {
+            return error;
+        }
+    }
+
+    public BatchArchiver( String siteListFile, String defaultCookie,
+                          String optionsFile ) {
+        setSiteListFile(siteListFile);
+        setDefaultCookie(defaultCookie);
+        setOptionsFile(optionsFile);
+    }
+
+    /**
+     * Batch command start point.
+     *
+     * @param args site-list-file default-cookie (optional properties-file)
+     */
+    public static void main(String[] args) {
+        if ( args == null || args.length < 2 ) {
+            BatchArchiver.usage("Missing arguments");
+            return;
+        }
+        String optionsFile = null;
+        if ( args.length == 3 ) {
+            optionsFile = args[2];
+        }
+        BatchArchiver batch = new BatchArchiver(args[0], args[1], optionsFile);
+        int rc = 0;
+        try {
+            List<SiteResult> results = batch.execute();
+            batch.printSummary(results);
+            System.out.println("Timing breakdown (all sites):");
+            System.out.print(batch.getMetrics().getReport());
+            for ( SiteResult result: results ) {
+                if ( ! result.isSuccess() ) {
+                    rc = 1;
+                }
+            }
+        } catch ( Exception e ) {
+            e.printStackTrace();
+            rc = 1;
+        }
+        System.exit(rc);
+    }
+    /**
+     * Output an error message with usage information.
+     *
+     * @param msg
+     */
+    static public void usage( String msg ) {
+        System.err.println(msg);
+        System.err.println("Usage: SakaiArchiver --batch site-list-file cookie (optional properties-file)");
+    }
+
+    /**
+     * Archive all the sites in the site list.
+     *
+     * @return The result for each site in site list order.
+     * @throws Exception
+     */
+    public List<SiteResult> execute() throws Exception {
+        loadSiteList();
+        int threads = Integer.parseInt(loadOptions().getProperty(
+                Archiver.BATCH_THREADS, "1").trim());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<SiteResult>> futures = new ArrayList<Future<SiteResult>>();
+        try {
+            for ( final String[] site: getSites() ) {
+                futures.add(executor.submit(new Callable<SiteResult>() {
+                    public SiteResult call() {
+                        return archive(site[0], site[1]);
+                    }
+                }));
+            }
+            List<SiteResult> results = new ArrayList<SiteResult>();
+            for ( Future<SiteResult> future: futures ) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new Exception(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+    /**
+     * Archive a single site.
+     *
+     * @param site
+     * @param cookie
+     * @return The result (never throws)
+     */
+    public SiteResult archive( String site, String cookie ) {
+        SiteResult result = new SiteResult();
+        result.site = site;
+        long start = System.currentTimeMillis();
+        Archiver archiver = new Archiver(site, cookie, getOptionsFile());
+        archiver.setMessagePrefix("[" + site + "] ");
+        try {
+            archiver.initialize();
+            archiver.execute();
+            result.error = RunReport.getToolFailureError(archiver.getMetrics());
+            result.success = result.error == null;
+        } catch ( Exception e ) {
+            e.printStackTrace();
+            result.error = e.toString();
+        } finally {
+            archiver.awaitDownloads();
+            result.elapsed = System.currentTimeMillis() - start;
+            archiver.writeReport(result.success, result.error, result.elapsed);
+            archiver.finalize();
+        }
+        getMetrics().merge(archiver.getMetrics());
+        return result;
+    }
+    /**
+     * Output the success/failure of each site and the totals.
+     *
+     * @param results
+     */
+    public void printSummary( List<SiteResult> results ) {
+        int failed = 0;
+        System.out.println("Sakai Archiver batch summary:");
+        for ( SiteResult result: results ) {
+            String status = "OK    ";
+            if ( ! result.isSuccess() ) {
+                status = "FAILED";
+                failed++;
+            }
+            String line = "  " + status + " " + result.getSite() + " (" +
+                    (result.getElapsed() / 1000) + "s)";
+            if ( result.getError() != null ) {
+                line += " " + result.getError();
+            }
+            System.out.println(line);
+        }
+        System.out.println("Sites archived: " + (results.size() - failed) +
+                "  Failed: " + failed);
+    }
+    /**
+     * Read the site list file.
+     *
+     * @throws IOException
+     */
+    public void loadSiteList() throws IOException {
+        List<String[]> sites = new ArrayList<String[]>();
+        BufferedReader in = new BufferedReader(new FileReader(getSiteListFile()));
+        try {
+            String line;
+            while ( (line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( line.equals("") || line.startsWith("#") ) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                String cookie = getDefaultCookie();
+                if ( parts.length > 1 ) {
+                    cookie = parts[1];
+                }
+                sites.add(new String[] { parts[0], cookie });
+            }
+        } finally {
+            in.close();
+        }
+        setSites(sites);
+    }
+    /**
+     * Load the options the same way the Archiver does so batch settings can
+     * be in the same properties file.
+     *
+     * @return The options.
+     * @throws IOException
+     */
+    public Properties loadOptions() throws IOException {
+        Properties defaults = new Properties();
+        defaults.load(Archiver.class.getClassLoader().getResourceAsStream("sakai-archiver.properties"));
+        Properties options = new Properties(defaults);
+        if ( getOptionsFile() != null ) {
+            FileInputStream in = new FileInputStream(getOptionsFile());
+            try {
+                options.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return options;
+    }
+
+    public String getSiteListFile() {
+        return siteListFile;
+    }
+    public void setSiteListFile(String siteListFile) {
+        this.siteListFile = siteListFile;
+    }
+    public String getDefaultCookie() {
+        return defaultCookie;
+    }
+    public void setDefaultCookie(String defaultCookie) {
+        this.defaultCookie = defaultCookie;
+    }
+    public String getOptionsFile() {
+        return optionsFile;
+    }
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+    public void setOptionsFile(String optionsFile) {
+        this.optionsFile = optionsFile;
+    }
+    /**
+     * Get the site list.
+     *
+     * @return A list of {site, cookie} pairs.  Always returns an object.
+     */
+    public List<String[]> getSites() {
+        if ( sites == null ) {
+            sites = new ArrayList<String[]>();
+        }
+        return sites;
+    }
+    public void setSites(List<String[]> sites) {
+        this.sites = sites;
+    }
+}
@@ -0,0 +1,195 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+/**
+ * <p>Downloads binary files (resources, attachments, and the like) on a
+ * bounded pool of worker threads so pages can continue to be processed
+ * while the files come down.  The pool size is set by the
+ * download.threads property.</p>
+ *
+ * <p>Files are streamed to disk by the Archiver's StreamingDownloader
+ * (which is thread safe) using the Sakai session cookies, so the workers
+ * don't need WebClients of their own and large files are never held in
+ * memory.</p>
+ *
+ * <p>Downloads are tracked by canonical URL and by local file so a file
+ * referenced from several pages (or with different URL encodings) is only
+ * fetched once.  The Future returned for a download will give the local
+ * path to link to, which will be the fileNotFound.htm page if the download
+ * failed.  Finished downloads are recorded in the Archiver's
+ * saved pages index.</p>
+ */
+public class FileDownloader {
+
+    private Archiver archiver;
+    private ExecutorService executor;
+    /** Map of canonical URL to download result */
+    private ConcurrentMap<String,Future<String>> downloads;
+    /** Map of local file path to download result */
+    private Map<String,Future<String>> files;
+
+    /**
+     * Create a downloader with the specified number of worker threads.
+     *
+     * @param archiver
+     * @param threads The maximum number of concurrent downloads.
+     */
+    public FileDownloader( Archiver archiver, int threads ) {
+        setArchiver(archiver);
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "file-download-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        downloads = new ConcurrentHashMap<String,Future<String>>();
+        files = new HashMap<String,Future<String>>();
+    }
+    /**
+     * Queue a file for download.  If the URL has already been queued, the
+     * existing download is returned.
+     *
+     * @param url The fully qualified URL to the file.
+     * @param href The original link, used for messages and the not found page.
+     * @param file The local file to save to.
+     * @param localPath The path that links should use if the download works.
+     * @param referer The page the link was found on (may be null).
+     * @return A Future that gives the local path to link to.
+     */
+    public Future<String> download( final URL url, final String href,
+                                    final File file, final String localPath,
+                                    final String referer ) {
+        String key = SavedPageIndex.canonicalize(url.toExternalForm());
+        Future<String> result = downloads.get(key);
+        if ( result != null ) {
+            return result;
+        }
+        String fileKey = file.getAbsolutePath();
+        final String tool = getArchiver().getMetrics().getTool();
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                // Count the download against the tool that queued it.
+                getArchiver().getMetrics().setTool(tool);
+                String path = fetch(url, href, file, localPath, referer);
+                getArchiver().getMetrics().count(path.equals(localPath) ?
+                        RunMetrics.FILES_DOWNLOADED : RunMetrics.FILES_FAILED);
+                getArchiver().getSavedPages().add(url, path);
+                if ( path.equals(localPath) && getArchiver().getJournal() != null ) {
+                    getArchiver().getJournal().fileComplete(url, path, file);
+                }
+                return path;
+            }
+        });
+        // The same file can be linked with different URL encodings (e.g. (
+        // and %28), so downloads are also tracked by file to keep two tasks
+        // from writing it at once.
+        synchronized (this) {
+            result = downloads.get(key);
+            if ( result == null ) {
+                result = files.get(fileKey);
+                if ( result != null ) {
+                    downloads.put(key, result);
+                }
+            }
+            if ( result != null ) {
+                return result;
+            }
+            downloads.put(key, task);
+            files.put(fileKey, task);
+        }
+        executor.execute(task);
+        return task;
+    }
+    /**
+     * Download the file, streaming it straight to disk with the Archiver's
+     * StreamingDownloader and the main WebClient's session cookies.
+     *
+     * @return The local path or the fileNotFound.htm path if it failed.
+     * @throws IOException
+     */
+    protected String fetch( URL url, String href, File file, String localPath,
+                            String referer ) throws IOException {
+        WebRequest request = new WebRequest(url);
+        if ( referer != null ) {
+            request.setAdditionalHeader("Referer", referer);
+        }
+        try {
+            long size = getArchiver().getStreamingDownloader().download(
+                    getArchiver().getWebClient(), request, file,
+                    getArchiver().getManifest());
+            if ( size == StreamingDownloader.NOT_MODIFIED ) {
+                msg("File not modified: " + href + ";localpath=" +
+                        file.getAbsolutePath(), Archiver.NORMAL);
+                return localPath;
+            }
+            msg("Saving file: " + href + ";size=" + size +";localpath=" +
+                    file.getAbsolutePath(), Archiver.NORMAL);
+            return localPath;
+        } catch ( Exception e ) {
+            msg("Could not download file: " + href + " (" + e + ")", Archiver.WARNING);
+            return "fileNotFound.htm?file=" + URLEncoder.encode(href, "UTF-8");
+        }
+    }
+    /**
+     * Get a Future that has already completed with the value.  Used when no
+     * download is needed.
+     *
+     * @param localPath
+     * @return
+     */
+    public static Future<String> completed( final String localPath ) {
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                return localPath;
+            }
+        });
+        task.run();
+        return task;
+    }
+    /**
+     * Wait for any queued downloads to finish.  Safe to call more than once.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    /**
+     * Output a message via Archiver's msg method.
+     *
+     * @param msg
+     */
+    public void msg( String msg, int level ) {
+        getArchiver().msg(msg, level);
+    }
+    public Archiver getArchiver() {
+        return archiver;
+    }
+    public void setArchiver(Archiver archiver) {
+        this.archiver = archiver;
+    }
+}
@@ -0,0 +1,101 @@
+package org.sakaiproject.util.archiver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Rewrites src and href attribute values in an HTML string in a single
+ * pass.  Replacements are registered by attribute name and original value,
+ * then the HTML is scanned once and every attribute whose value is in the
+ * map is replaced.</p>
+ *
+ * <p>Values are compared literally (not as regular expressions), so URLs
+ * with ?, +, (, [ and the like don't need quoting.  Values written with
+ * &amp;amp; in the HTML will match the unescaped URL.</p>
+ *
+ * <p>If the same value is registered more than once for an attribute, the
+ * first replacement wins.</p>
+ */
+public class LinkRewriter {
+
+    /** Matches src="..." and href="..." (or single quoted) attributes */
+    public static final Pattern ATTRIBUTE_REGEX = Pattern.compile(
+            "(src|href)[\\s]*=[\\s]*(?:\"([^\"]*)\"|'([^']*)')");
+
+    private Map<String,String> srcChanges = new HashMap<String,String>();
+    private Map<String,String> hrefChanges = new HashMap<String,String>();
+
+    /**
+     * Replace src="orgValue" with src="newValue".
+     *
+     * @param orgValue
+     * @param newValue
+     */
+    public void addSrc( String orgValue, String newValue ) {
+        addReplacement("src", orgValue, "src=\"" + newValue + "\"");
+    }
+    /**
+     * Replace href="orgValue" with href="newValue".
+     *
+     * @param orgValue
+     * @param newValue
+     */
+    public void addHref( String orgValue, String newValue ) {
+        addReplacement("href", orgValue, "href=\"" + newValue + "\"");
+    }
+    /**
+     * Replace the whole attribute (e.g. href="orgValue") with the replacement
+     * text.  Lets callers add other attributes like a class.
+     *
+     * @param attribute Either src or href.
+     * @param orgValue The attribute value to match.
+     * @param replacement The text to replace the attribute with.
+     */
+    public void addReplacement( String attribute, String orgValue,
+                                String replacement ) {
+        Map<String,String> changes = "src".equals(attribute) ? srcChanges : hrefChanges;
+        if ( ! changes.containsKey(orgValue) ) {
+            changes.put(orgValue, replacement);
+        }
+    }
+    public boolean isEmpty() {
+        return srcChanges.isEmpty() && hrefChanges.isEmpty();
+    }
+    /**
+     * Apply the replacements to the html.
+     *
+     * @param html
+     * @return The rewritten html.
+     */
+    public String rewrite( String html ) {
+        if ( isEmpty() ) {
+            return html;
+        }
+        Matcher m = ATTRIBUTE_REGEX.matcher(html);
+        StringBuilder result = null;
+        int last = 0;
+        while ( m.find() ) {
+            Map<String,String> changes = m.group(1).equals("src") ? srcChanges : hrefChanges;
+            String value = m.group(2) != null ? m.group(2) : m.group(3);
+            String replacement = changes.get(value);
+            if ( replacement == null && value.contains("&amp;") ) {
+                replacement = changes.get(value.replace("&amp;", "&"));
+            }
+            if ( replacement == null ) {
+                continue;
+            }
+            if ( result == null ) {
+                result = new StringBuilder(html.length() + 256);
+            }
+            result.append(html, last, m.start()).append(replacement);
+            last = m.end();
+        }
+        if ( result == null ) {
+            return html;
+        }
+        result.append(html, last, html.length());
+        return result.toString();
+    }
+}
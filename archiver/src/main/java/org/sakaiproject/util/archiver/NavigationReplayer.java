@@ -0,0 +1,259 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+/**
+ * <p>Replays a recorded navigation request for the other entries in a
+ * list, so parsers don't have to reload the tool main page and find the
+ * link again for every entry.</p>
+ *
+ * <p>Sakai's JSF links submit a form after their onclick sets hidden
+ * fields, e.g.
+ * <code>document.forms['msgForum']['messageId'].value='60772';</code>.
+ * The first entry is visited by clicking its link (the normal path) while
+ * the HTTP request it sends is recorded.  Later entries are visited by
+ * sending a copy of that request with the hidden fields from their own
+ * onclick.</p>
+ *
+ * <p>Each replayed page is checked by a Validator.  If a replay fails or is
+ * rejected, replaying is turned off and replay returns null so the parser
+ * falls back to clicking.  Instances are used by one thread.</p>
+ */
+public class NavigationReplayer {
+
+    /** Matches ['name'].value='value' assignments in an onclick */
+    public static final Pattern FIELD_ASSIGNMENT = Pattern.compile(
+            "\\[\\s*'([^']+)'\\s*\\]\\s*\\.value\\s*=\\s*'([^']*)'");
+    /** Matches 'name':'value' pairs in a jsfcljs style parameter object */
+    public static final Pattern OBJECT_PARAMETER = Pattern.compile(
+            "'([^']+)'\\s*:\\s*'([^']*)'");
+
+    /**
+     * Checks that a replayed page is the page the click would have loaded.
+     */
+    public interface Validator {
+        boolean isValid( HtmlPage page );
+    }
+
+    private WebClient webClient;
+    private WebRequest template;
+    private Map<String,String> templateFields;
+    private boolean enabled = true;
+    private int replays;
+    private int fallbacks;
+
+    /**
+     * Create a replayer for pages loaded by a WebClient.
+     *
+     * @param webClient
+     */
+    public NavigationReplayer( WebClient webClient ) {
+        this.webClient = webClient;
+    }
+    /**
+     * Click an element and record the request it sends.  The first
+     * recording becomes the template for replays.
+     *
+     * @param element The link (or other element) to click.
+     * @return The page the click loaded.
+     * @throws IOException
+     */
+    public <P extends Page> P record( HtmlElement element ) throws IOException {
+        if ( template != null || ! enabled ) {
+            return element.click();
+        }
+        Recorder recorder = new Recorder(webClient);
+        P page;
+        try {
+            page = element.click();
+        } finally {
+            webClient.setWebConnection(recorder.getWrappedWebConnection());
+        }
+        Map<String,String> fields = parseFields(element.getAttribute("onclick"));
+        if ( recorder.getRequest() != null && ! fields.isEmpty() ) {
+            template = recorder.getRequest();
+            templateFields = fields;
+        }
+        return page;
+    }
+    /**
+     * Load the page for a list entry by replaying the recorded request with
+     * the fields set by the entry's onclick.
+     *
+     * @param onclick The onclick attribute of the entry's link.
+     * @param validator Checks the replayed page.
+     * @return The page or null if the entry could not be replayed and the
+     *         caller should click instead.
+     */
+    public HtmlPage replay( String onclick, Validator validator ) {
+        if ( ! enabled || template == null ) {
+            return null;
+        }
+        Map<String,String> fields = parseFields(onclick);
+        if ( fields.isEmpty() || fields.equals(templateFields) ) {
+            return null;
+        }
+        try {
+            Page page = webClient.getPage(createRequest(fields));
+            WebResponse response = page.getWebResponse();
+            if ( response.getStatusCode() < 400 && page instanceof HtmlPage &&
+                 validator.isValid((HtmlPage) page) ) {
+                replays++;
+                return (HtmlPage) page;
+            }
+        } catch ( Exception e ) {
+            // Fall through to disable replays.
+        }
+        enabled = false;
+        fallbacks++;
+        return null;
+    }
+    /**
+     * Build a copy of the template request with the fields changed.  Fields
+     * set by the recorded onclick but not by this one are cleared.
+     *
+     * @param fields
+     * @return The request to send.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    protected WebRequest createRequest( Map<String,String> fields )
+            throws URISyntaxException, IOException {
+        Map<String,String> changes = new HashMap<String,String>();
+        for ( String name: templateFields.keySet() ) {
+            changes.put(name, "");
+        }
+        changes.putAll(fields);
+
+        WebRequest request = new WebRequest(template.getUrl(), template.getHttpMethod());
+        request.setCharset(template.getCharset());
+        request.setEncodingType(template.getEncodingType());
+        request.setAdditionalHeaders(new HashMap<String,String>(
+                template.getAdditionalHeaders()));
+        if ( template.getHttpMethod() == HttpMethod.GET ) {
+            URI uri = template.getUrl().toURI();
+            List<org.apache.http.NameValuePair> query =
+                    URLEncodedUtils.parse(uri, template.getCharset());
+            URIBuilder builder = new URIBuilder(uri).removeQuery();
+            List<NameValuePair> params = new ArrayList<NameValuePair>();
+            for ( org.apache.http.NameValuePair pair: query ) {
+                params.add(new NameValuePair(pair.getName(), pair.getValue()));
+            }
+            for ( NameValuePair pair: applyChanges(params, changes) ) {
+                builder.addParameter(pair.getName(), pair.getValue());
+            }
+            builder.setCharset(Charset.forName(template.getCharset()));
+            request.setUrl(new URL(builder.build().toString()));
+        }
+        else {
+            request.setRequestParameters(
+                    applyChanges(template.getRequestParameters(), changes));
+        }
+        return request;
+    }
+    private List<NameValuePair> applyChanges( List<NameValuePair> params,
+                                              Map<String,String> changes ) {
+        List<NameValuePair> result = new ArrayList<NameValuePair>();
+        Map<String,String> remaining = new LinkedHashMap<String,String>(changes);
+        for ( NameValuePair pair: params ) {
+            if ( changes.containsKey(pair.getName()) ) {
+                result.add(new NameValuePair(pair.getName(), changes.get(pair.getName())));
+                remaining.remove(pair.getName());
+            }
+            else {
+                result.add(pair);
+            }
+        }
+        for ( Map.Entry<String,String> field: remaining.entrySet() ) {
+            if ( ! field.getValue().equals("") ) {
+                result.add(new NameValuePair(field.getKey(), field.getValue()));
+            }
+        }
+        return result;
+    }
+    /**
+     * Get the form fields an onclick sets.
+     *
+     * @param onclick
+     * @return A map of field name to value (empty if none are found).
+     */
+    public static Map<String,String> parseFields( String onclick ) {
+        Map<String,String> fields = new LinkedHashMap<String,String>();
+        if ( onclick == null ) {
+            return fields;
+        }
+        Matcher m = FIELD_ASSIGNMENT.matcher(onclick);
+        while ( m.find() ) {
+            fields.put(m.group(1), m.group(2));
+        }
+        if ( fields.isEmpty() && onclick.contains("jsfcljs") ) {
+            m = OBJECT_PARAMETER.matcher(onclick);
+            while ( m.find() ) {
+                fields.put(m.group(1), m.group(2));
+            }
+        }
+        return fields;
+    }
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public int getReplays() {
+        return replays;
+    }
+    public int getFallbacks() {
+        return fallbacks;
+    }
+    /**
+     * Get a summary of the replay counts.
+     *
+     * @return The summary.
+     */
+    public String getStats() {
+        return "Navigation replays: " + replays + " fallbacks: " + fallbacks;
+    }
+
+    /**
+     * Records the first request sent through a WebClient.
+     */
+    private static class Recorder extends WebConnectionWrapper {
+        private WebRequest request;
+
+        public Recorder( WebClient client ) {
+            super(client);
+        }
+        @Override
+        public WebResponse getResponse( WebRequest request ) throws IOException {
+            if ( this.request == null ) {
+                this.request = request;
+            }
+            return super.getResponse(request);
+        }
+        public WebRequest getRequest() {
+            return request;
+        }
+    }
+}
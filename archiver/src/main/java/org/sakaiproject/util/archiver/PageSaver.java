@@ -2,27 +2,22 @@ package org.sakaiproject.util.archiver;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.stream.ImageInputStream;
-
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.WebClient;
@@ -39,14 +34,15 @@ import com.gargoylesoftware.htmlunit.html.HtmlScript;
  * <p>Save HtmlPage with shared css, javascript, files, iframes, and other related
  * information.  Will parse out any embedded CSS images and download them
  * as well.  Optimized to check if file has already been downloaded via the
- * Archiver.getSavedPages() List.</p>
+ * Archiver.getSavedPages() index.</p>
  *
  * <p>The base directory for saved pages is defined by the Archiver options
  * properties file archive.dir.base property.</p>
  *
  * </p>Binary files are determined based on either location in the resources
  * space (url contains /access/content) or if the extension is in the
- * binary.file.extensions property.</p>
+ * binary.file.extensions property.  These are downloaded in the background
+ * by the Archiver's FileDownloader while the rest of the page is processed.</p>
  *
  * <p>Files referenced relative the the "root" will be relative to the base
  * directory. Files relative to the page will be in the page's directory.</p>
@@ -76,6 +72,10 @@ public class PageSaver {
 	 */
 	public void save( HtmlPage page, String filepath ) throws Exception {
 		setPage(page);
+		RunMetrics metrics = getArchiver().getMetrics();
+		long saveStart = System.nanoTime();
+		ArchiverEvents.PageSave saveEvent = new ArchiverEvents.PageSave();
+		saveEvent.begin();
 
 		File base = new File(getArchiver().getBasePath());
 		File pageFile = new File(base, filepath);
@@ -83,12 +83,40 @@ public class PageSaver {
 		String relativeRoot = base.toURI().relativize(pageFile.toURI()).getPath();
 		relativeRoot = "../";  //TODO: Calculate this
 
+		// Start the file downloads first so they run while the rest is parsed.
+		long start = System.nanoTime();
+		ArchiverEvents.PageSaveStage stage = beginStage();
+		Map<String,Future<String>> fileDownloads = queueFiles( page, filepath );
+		metrics.record("save.files", start, 0);
+		endStage(stage, "queueFiles", filepath, fileDownloads.size(), null);
+		start = System.nanoTime();
+		stage = beginStage();
 		Map<String,String> cssFiles = parseCss( page );
+		metrics.record("save.css", start, 0);
+		endStage(stage, "parseCss", filepath, cssFiles.size(), cssFiles);
+		start = System.nanoTime();
+		stage = beginStage();
 		Map<String,String> jsFiles = parseJavascript(page);
+		metrics.record("save.javascript", start, 0);
+		endStage(stage, "parseJavascript", filepath, jsFiles.size(), jsFiles);
+		start = System.nanoTime();
+		stage = beginStage();
 		Map<String,String> imgFiles = parseImages( page, filepath );
-		Map<String,String> files = parseFiles( page, filepath );
+		metrics.record("save.images", start, 0);
+		endStage(stage, "parseImages", filepath, imgFiles.size(), imgFiles);
+		start = System.nanoTime();
+		stage = beginStage();
 		Map<String,String> iframeFiles = parseIframes(page, filepath);
+		metrics.record("save.iframes", start, 0);
+		endStage(stage, "parseIframes", filepath, iframeFiles.size(), null);
+		start = System.nanoTime();
+		stage = beginStage();
+		Map<String,String> files = waitForFiles( fileDownloads );
+		metrics.record("save.files.wait", start, 0);
+		endStage(stage, "parseFiles", filepath, files.size(), files);
 
+		start = System.nanoTime();
+		stage = beginStage();
 		String html = page.getWebResponse().getContentAsString();
 
 		// Let the parser modify the html before any other changes.
@@ -97,59 +125,56 @@ public class PageSaver {
 	        html = parser.modifySavedHtml(page, html);
 	    }
 
-		// Update css links
-		for( String cssFile: cssFiles.keySet() ) {
-			String pattern = HREF_REGEX + cssFiles.get(cssFile).replaceAll("[?]", "[?]") + "\"";
-			String replace = "href=\"" + relativeRoot + cssFile + "\"";
-			html = html.replaceAll(pattern, replace);
-		}
-		// Update javascript links
-		for( String newPath: jsFiles.keySet() ) {
-			String orgPath = jsFiles.get(newPath);
-			String pattern = SRC_REGEX + orgPath.replaceAll("[?]", "[?]") +"\"";
-			String replace;
-			if ( orgPath.startsWith("/") || orgPath.startsWith("http")) {
-				replace = "src=\"" + relativeRoot + newPath + "\"";
-			}
-			else {
-				replace = "src=\"" + newPath + "\"";
-			}
-			html = html.replaceAll(pattern, replace);
+		html = rewriteHtml(html, cssFiles, jsFiles, imgFiles, files, iframeFiles,
+		        relativeRoot);
+		metrics.record("save.rewrite", start, html.length());
+		if ( stage.shouldCommit() ) {
+			stage.bytes = html.length();
 		}
-		// Update image links
-		for( String newPath: imgFiles.keySet() ) {
-			String orgPath = imgFiles.get(newPath);
-			String pattern = SRC_REGEX + orgPath.replaceAll("[?]", "[?]") +"\"";
-			String replace;
-			if ( orgPath.startsWith("/") || orgPath.startsWith("http")) {
-				replace = "src=\"" + relativeRoot + newPath + "\"";
-			}
-			else {
-				replace = "src=\"" + newPath + "\"";
-			}
-			html = html.replaceAll(pattern, replace);
+		endStage(stage, "rewrite", filepath, 0, null);
+
+		start = System.nanoTime();
+		saveContentString(html, filepath);
+		metrics.record("save.write", start, pageFile.length());
+		metrics.record("save", saveStart, 0);
+		if ( saveEvent.shouldCommit() ) {
+			saveEvent.tool = getToolName();
+			saveEvent.url = page.getUrl().toExternalForm();
+			saveEvent.localPath = filepath;
+			saveEvent.bytes = html.length();
+			saveEvent.commit();
 		}
-		// Update file links
-		for( String newPath: files.keySet() ) {
-			String orgPath = files.get(newPath);
-			String pattern = HREF_REGEX + orgPath.replaceAll("[?]", "[?]") +"\"";
-			String replace;
-			if ( orgPath.startsWith("/") || orgPath.startsWith("http")) {
-				replace = "href=\"" + relativeRoot + newPath + "\"";
-			}
-			else {
-				replace = "href=\"" + newPath + "\"";
-			}
-			html = html.replaceAll(pattern, replace);
+	}
+	/**
+	 * Update the css, javascript, image, file, and iframe links in the page
+	 * HTML and add the offline javascript and css.
+	 *
+	 * @param html The page HTML (after the parser has modified it).
+	 * @param cssFiles
+	 * @param jsFiles
+	 * @param imgFiles
+	 * @param files
+	 * @param iframeFiles
+	 * @param relativeRoot The path from the page to the archive root.
+	 * @return The HTML to save.
+	 * @throws Exception
+	 */
+	public String rewriteHtml( String html, Map<String,String> cssFiles,
+	                           Map<String,String> jsFiles, Map<String,String> imgFiles,
+	                           Map<String,String> files, Map<String,String> iframeFiles,
+	                           String relativeRoot ) throws Exception {
+		// Update css, javascript, image, file, and iframe links in one pass.
+		LinkRewriter rewriter = new LinkRewriter();
+		for( String cssFile: cssFiles.keySet() ) {
+			rewriter.addHref(cssFiles.get(cssFile), relativeRoot + cssFile);
 		}
-		// Update iframe links
+		addLinks(rewriter, "src", jsFiles, relativeRoot);
+		addLinks(rewriter, "src", imgFiles, relativeRoot);
+		addLinks(rewriter, "href", files, relativeRoot);
 		for( String iframeFile: iframeFiles.keySet() ) {
-			String frameURL = iframeFiles.get(iframeFile);
-			frameURL = frameURL.replaceAll("[?]", "[?]");
-			String pattern = SRC_REGEX + frameURL +"\"";
-			String replace = "src=\"" + iframeFile + "\"";
-			html = html.replaceAll(pattern, replace);
+			rewriter.addSrc(iframeFiles.get(iframeFile), iframeFile);
 		}
+		html = rewriter.rewrite(html);
 
 		// Add offline js and css
 		String replace = "$1";
@@ -161,16 +186,101 @@ public class PageSaver {
 		}
 		replace += ParsingUtils.addJavaScriptInclude("../sakai-offline.js") +
 		  "<link href=\"../sakai-offline.css\" type=\"text/css\" rel=\"stylesheet\" media=\"all\">\r\n";
-        if ( parser != null ) {
-            replace += parser.addJavascript();
+        if ( getParser() != null ) {
+            replace += getParser().addJavascript();
         }
 	    replace += "</body>$2";
 		html = html.replaceAll("(?si)^(.*)</body>(.*)$",replace);
-
-		saveContentString(html, filepath);
+		return html;
+	}
+	private ArchiverEvents.PageSaveStage beginStage() {
+		ArchiverEvents.PageSaveStage stage = new ArchiverEvents.PageSaveStage();
+		stage.begin();
+		return stage;
+	}
+	/**
+	 * Commit a save stage event if it is being recorded.
+	 *
+	 * @param stage
+	 * @param name The stage name.
+	 * @param filepath The page's path.
+	 * @param links The number of links the stage handled.
+	 * @param localFiles The stage's link map (local path as key) used to add
+	 *        up the size of its files (null to leave the size as is).
+	 */
+	private void endStage( ArchiverEvents.PageSaveStage stage, String name,
+	                       String filepath, int links, Map<String,String> localFiles ) {
+		stage.end();
+		if ( ! stage.shouldCommit() ) {
+			return;
+		}
+		stage.stage = name;
+		stage.tool = getToolName();
+		stage.url = getPage().getUrl().toExternalForm();
+		stage.localPath = filepath;
+		stage.links = links;
+		if ( localFiles != null ) {
+			stage.bytes = localSize(localFiles, filepath);
+		}
+		stage.commit();
+	}
+	/**
+	 * Add up the size of the local files in a link update map.
+	 *
+	 * @param links A map with local path as key and original URL as value.
+	 * @param filepath The page's path.
+	 * @return The total size of the files that exist.
+	 */
+	private long localSize( Map<String,String> links, String filepath ) {
+		File base = new File(getArchiver().getBasePath());
+		File pageRoot = new File(base, filepath).getParentFile();
+		long size = 0;
+		for ( Map.Entry<String,String> link: links.entrySet() ) {
+			String orgPath = link.getValue();
+			String localPath = link.getKey().split("\\?")[0];
+			File file = orgPath.startsWith("/") || orgPath.startsWith("http") ?
+					new File(base, localPath) : new File(pageRoot, localPath);
+			size += file.length();
+		}
+		return size;
+	}
+	/**
+	 * @return The tool being saved (for events and metrics).
+	 */
+	private String getToolName() {
+		if ( getParser() != null ) {
+			return getParser().getToolName();
+		}
+		return getArchiver().getMetrics().getTool();
 	}
 	/**
-	 * Find any anchors that reference files and not other pages.
+	 * Add a link update map to the rewriter.  Root relative and full URLs are
+	 * changed to be relative to the archive root, page relative links are
+	 * left relative to the page.
+	 *
+	 * @param rewriter
+	 * @param attribute src or href
+	 * @param links A map with local path as key and original URL as value.
+	 * @param relativeRoot The path from the page to the archive root.
+	 */
+	protected void addLinks( LinkRewriter rewriter, String attribute,
+	                         Map<String,String> links, String relativeRoot ) {
+		for( String newPath: links.keySet() ) {
+			String orgPath = links.get(newPath);
+			String replace;
+			if ( orgPath.startsWith("/") || orgPath.startsWith("http")) {
+				replace = relativeRoot + newPath;
+			}
+			else {
+				replace = newPath;
+			}
+			rewriter.addReplacement(attribute, orgPath,
+			        attribute + "=\"" + replace + "\"");
+		}
+	}
+	/**
+	 * Find any anchors that reference files and not other pages and download
+	 * them.
 	 *
 	 * @param page
      * @param filepath The file path and file name relative to the archive base path.
@@ -178,9 +288,22 @@ public class PageSaver {
 	 * @throws IOException
 	 */
 	public Map<String,String> parseFiles( HtmlPage page, String filepath ) throws IOException {
-		Map<String,String> files = new HashMap<String,String>();
+		return waitForFiles(queueFiles(page, filepath));
+	}
+	/**
+	 * Find any anchors that reference files and not other pages and queue
+	 * them with the Archiver's FileDownloader.
+	 *
+	 * @param page
+     * @param filepath The file path and file name relative to the archive base path.
+	 * @return A map with the URL as key and the pending local path as value.
+	 * @throws IOException
+	 */
+	public Map<String,Future<String>> queueFiles( HtmlPage page, String filepath ) throws IOException {
+		Map<String,Future<String>> files = new LinkedHashMap<String,Future<String>>();
 		File base = new File(getArchiver().getBasePath());
 		File pageRoot = new File(base, filepath).getParentFile();
+		String referer = page.getUrl().toExternalForm();
 
 		List<HtmlAnchor> anchors = page.getAnchors();
         for( HtmlAnchor anchor: anchors ) {
@@ -190,6 +313,9 @@ public class PageSaver {
         		href.matches("http[s]?://[^/]+") || href.startsWith("#") ) {
         		continue;
         	}
+        	if ( files.containsKey(href) ) {
+        	    continue;
+        	}
             String localPath = href.split("\\?")[0];  // Some images have query parameters.
             boolean relative = true;
             // Check if path is full url
@@ -211,44 +337,59 @@ public class PageSaver {
             // Get all files in /access/content or any that match binary files
             // TODO: filter out external sites?
             if ( href.contains("/access/content") || getArchiver().getFileExtensions().contains(ext)) {
-                if ( ! getArchiver().getSavedPages().contains(localPath)) {
-
-               	    File file;
-	               	if ( relative ) {
-	               		file = new File(pageRoot, localPath );
-	               	}
-	               	else {
-	               		file = new File(base, localPath);
-	               	}
-	               	file.getParentFile().mkdirs();
-
-	               	if ( ! Archiver.DEBUG_SKIP_FILES ) {
-	               		InputStream in = null;
-	               		OutputStream out = null;
-	               		try {
-	               			in = anchor.click().getWebResponse().getContentAsStream();
-	               			out = new FileOutputStream(file);
-	               			long size = IOUtils.copyLarge(in, out);
-	            		    msg("Saving file: " + href + ";size=" + size +";localpath=" + file.getAbsolutePath(), Archiver.NORMAL);
-	               		} catch ( Exception e ) {
-	               			e.printStackTrace();
-	               		    localPath = "fileNotFound.htm?file=" + URLEncoder.encode(href, "UTF-8");
-	               			msg("Could not download file: " + href, Archiver.WARNING);
-	               		} finally {
-		            	    in.close();
-		            		out.close();
-		                }
-	               	}
-	               	else {
-	               		msg("DEBUG_SKIP_FILE is true, skipping file download", Archiver.WARNING);
-	               	}
-	            	getArchiver().getSavedPages().add(localPath);
+               	URL url = page.getFullyQualifiedUrl(href);
+               	String savedPath = getArchiver().getSavedPages().getLocalPath(url);
+                if ( savedPath != null ) {
+                    files.put(href, FileDownloader.completed(savedPath));
+                    continue;
+                }
+                if ( Archiver.DEBUG_SKIP_FILES ) {
+                    msg("DEBUG_SKIP_FILE is true, skipping file download", Archiver.WARNING);
+                    files.put(href, FileDownloader.completed(localPath));
+                    continue;
                 }
-                files.put(localPath, href);
+           	    File file;
+               	if ( relative ) {
+               		file = new File(pageRoot, localPath );
+               	}
+               	else {
+               		file = new File(base, localPath);
+               	}
+               	files.put(href, getArchiver().getFileDownloader().download(
+               	        url, href, file, localPath, referer));
             }
         }  // For
 		return files;
 	}
+	/**
+	 * Wait for queued file downloads to finish.
+	 *
+	 * @param downloads The map returned by queueFiles.
+	 * @return A link update map with local path as key and URL as value.  The
+	 *         local path will be the fileNotFound.htm page for failed
+	 *         downloads.
+	 * @throws IOException
+	 */
+	public Map<String,String> waitForFiles( Map<String,Future<String>> downloads )
+	        throws IOException {
+		Map<String,String> files = new HashMap<String,String>();
+		for( String href: downloads.keySet() ) {
+		    String localPath;
+		    try {
+		        localPath = downloads.get(href).get();
+		    } catch (InterruptedException e) {
+		        Thread.currentThread().interrupt();
+		        throw new IOException("Interrupted waiting for file: " + href);
+		    } catch (ExecutionException e) {
+		        e.printStackTrace();
+		        localPath = "fileNotFound.htm?file=" + URLEncoder.encode(href, "UTF-8");
+		        msg("Could not download file: " + href, Archiver.WARNING);
+		        getArchiver().getMetrics().count(RunMetrics.FILES_FAILED);
+		    }
+		    files.put(localPath, href);
+		}
+		return files;
+	}
 	/**
 	 * Parse any iframes contained in page and download them to the same dir as the main page.
 	 *
@@ -276,13 +417,13 @@ public class PageSaver {
 			// Map local name to full URL
 			iframes.put(name, path);
 			String pagePath = FilenameUtils.getPath(filepath);
-            if ( ! getArchiver().getSavedPages().contains(path)) {
+            if ( getArchiver().getSavedPages().claim(
+                    page.getFullyQualifiedUrl(path), pagePath + name)) {
             	msg("Saving iframe: " + pagePath + name + "(" +
                     framePage.getTitleText()+")", Archiver.NORMAL);
             	PageSaver saver = new PageSaver(getArchiver());
             	saver.setParser(getParser());
             	saver.save(framePage, pagePath + name );
-            	getArchiver().getSavedPages().add(path);
             }
 		}
 		return iframes;
@@ -320,7 +461,8 @@ public class PageSaver {
             	relative = false;
             }
             imgFiles.put(localPath, path);
-            if ( ! getArchiver().getSavedPages().contains(localPath)) {
+            URL imgUrl = page.getFullyQualifiedUrl(path);
+            if ( getArchiver().getSavedPages().claim(imgUrl, localPath)) {
 				msg("Saving image: src path: " + path + "  local path: " +
                     localPath, Archiver.VERBOSE);
             	File imageFile;
@@ -333,13 +475,15 @@ public class PageSaver {
             	imageFile.getParentFile().mkdirs();
             	try {
             	    image.saveAs(imageFile);
+            	    getArchiver().getMetrics().count(RunMetrics.FILES_DOWNLOADED);
             	} catch (IOException e ) {
+            	    getArchiver().getMetrics().count(RunMetrics.FILES_FAILED);
             	    localPath = "image-not-found.jpg?file=" +
             	            URLEncoder.encode(path,"UTF-8");
             	    msg("Could not save image: " + path + " Error was: '" +
             	            e.getMessage() + "'", Archiver.WARNING);
+            	    getArchiver().getSavedPages().add(imgUrl, localPath);
             	}
-	            getArchiver().getSavedPages().add(localPath);
             }
         }
 		return imgFiles;
@@ -369,14 +513,13 @@ public class PageSaver {
             	localPath = localPath.substring(1);
             }
             cssFiles.put(localPath, path);
-            if ( ! getArchiver().getSavedPages().contains(path)) {
+            if ( getArchiver().getSavedPages().claim(cssUrl, localPath)) {
 				msg("Saving css file: src path: " + path + "  local path: " +
                     localPath, Archiver.VERBOSE);
 
 	            WebResponse resp = link.getWebResponse(true);
 	            String css = resp.getContentAsString();
 	            saveContentString(css, path);
-	            getArchiver().getSavedPages().add(path);
 	            parseCssImages(css, path, cssUrl);
             }
         }
@@ -396,29 +539,32 @@ public class PageSaver {
 		while(m.find()) {
 			String cssImage = m.group(1).trim();
 
-			if ( cssImage.startsWith("data:") ||
-			    getArchiver().getSavedPages().contains(cssImage) ) {
+			if ( cssImage.startsWith("data:") ) {
 				continue;
 			}
 			URL imgUrl;
 			if ( cssImage.startsWith("/")) {
-				imgUrl = new URL(cssUrl.getProtocol() + "://" + cssUrl.getHost() + cssImage);
+				imgUrl = new URL(cssUrl.getProtocol() + "://" + cssUrl.getAuthority() + cssImage);
 			}
 			else {
 				imgUrl = new URL(cssUrl, cssImage);
 			}
 			String localPath = imgUrl.getPath().substring(1);
+			if ( ! getArchiver().getSavedPages().claim(imgUrl, localPath) ) {
+			    continue;
+			}
             msg("Saving css image:  src path: " + cssImage + "  local path: " +
 			    localPath, Archiver.VERBOSE);
 			File localFile = new File(getArchiver().getBasePath() + localPath);
 			localFile.getParentFile().mkdirs();
             try {
             	downloadImage(imgUrl, localFile );
+            	getArchiver().getMetrics().count(RunMetrics.FILES_DOWNLOADED);
             } catch ( IOException e ) {
             	// Some images may not exist.
+            	getArchiver().getMetrics().count(RunMetrics.FILES_FAILED);
             	msg("Could not download CSS image:  " + imgUrl.toString(), Archiver.WARNING);
             }
-            getArchiver().getSavedPages().add(cssImage);
 		}
 		return;
 	}
@@ -461,12 +607,11 @@ public class PageSaver {
                     jsFiles.put(localPath, path);
                 }
             }
-            if ( ! getArchiver().getSavedPages().contains(path)) {
+            if ( getArchiver().getSavedPages().claim(url, localPath)) {
                 msg("Saving Javascript:  src path: " + path + "  localPath: " +
                         localPath, Archiver.VERBOSE);
-            	Page jsPage = getArchiver().getWebClient().getPage(url);
+            	Page jsPage = getWebClient().getPage(url);
 	            saveContentString(jsPage.getWebResponse().getContentAsString(), localPath);
-	            getArchiver().getSavedPages().add(path);
             }
         }
         return jsFiles;
@@ -478,6 +623,8 @@ public class PageSaver {
 	 * @param path The file path relative to the archive base path.
 	 */
 	public void saveContentString(String content, String path ) throws FileNotFoundException {
+		ArchiverEvents.ContentWrite event = new ArchiverEvents.ContentWrite();
+		event.begin();
 		File file = new File(getArchiver().getBasePath() + path );
 		file.getParentFile().mkdirs();
 		PrintWriter out = new PrintWriter(file);
@@ -486,31 +633,67 @@ public class PageSaver {
 		} finally {
 			out.close();
 		}
+		if ( event.shouldCommit() ) {
+			event.tool = getToolName();
+			event.localPath = path;
+			event.bytes = file.length();
+			event.commit();
+		}
 	}
 	/**
-	 * Download an image from a URL.
+	 * Download an image from a URL.  The response is streamed to the file as
+	 * is (no decoding) by the Archiver's StreamingDownloader, so any image
+	 * format (including SVG, ICO, and WebP) and CSS referenced fonts are
+	 * saved unchanged, and a failed transfer never leaves a partial file.
+	 *
+	 * If the validate.css.image.types option is true, responses that are not
+	 * an image, font, or binary content type (e.g. an HTML error or login
+	 * page) are rejected before anything is written.
+	 *
+	 * If the image is in the archive manifest from a previous run, the
+	 * request is conditional and a 304 response keeps the existing file.
 	 *
 	 * @param url
 	 * @param file
-	 * @throws IOException
+	 * @throws IOException If the response was an error or not valid.
 	 */
     public void downloadImage( URL url, File file ) throws IOException {
 
-        WebClient webclient = getArchiver().getWebClient();
+        WebClient webclient = getWebClient();
 
         final String accept = webclient.getBrowserVersion().getImgAcceptHeader();
         final WebRequest request = new WebRequest(url, accept);
         request.setAdditionalHeader("Referer", getPage().getUrl().toExternalForm());
-        WebResponse imageWebResponse_ = webclient.loadWebResponse(request);
-        final ImageInputStream iis = ImageIO.createImageInputStream(imageWebResponse_.getContentAsStream());
-        final Iterator<ImageReader> iter = ImageIO.getImageReaders(iis);
-        if (!iter.hasNext()) {
-            iis.close();
-            throw new IOException("No image detected in response");
+        StreamingDownloader.ContentCheck check = null;
+        if ( Boolean.parseBoolean(getArchiver().getOption(Archiver.VALIDATE_CSS_IMAGE_TYPES)) ) {
+            check = new StreamingDownloader.ContentCheck() {
+                public void check( String type ) throws IOException {
+                    if ( ! isImageContentType(type) ) {
+                        throw new IOException("No image detected in response (" + type + ")");
+                    }
+                }
+            };
+        }
+        long size = getArchiver().getStreamingDownloader().download(webclient, request,
+                file, getArchiver().getManifest(), check);
+        if ( size == StreamingDownloader.NOT_MODIFIED ) {
+            msg("CSS image not modified: " + url, Archiver.VERBOSE);
         }
-        ImageReader imageReader = iter.next();
-        imageReader.setInput(iis);
-        ImageIO.write(imageReader.read(0), imageReader.getFormatName(), file);
+    }
+    /**
+     * Check if a content type is acceptable for a CSS url() reference.
+     *
+     * @param type The response content type (may be empty)
+     * @return True for image, font, and generic binary types.
+     */
+    public static boolean isImageContentType( String type ) {
+        if ( type == null ) {
+            return false;
+        }
+        type = type.toLowerCase();
+        return type.startsWith("image/") || type.startsWith("font/") ||
+               type.contains("font") ||
+               type.startsWith("application/octet-stream");
     }
 	/**
 	 * Output a message via Archiver's msg method.
@@ -529,6 +712,15 @@ public class PageSaver {
 	public HtmlPage getPage() {
 		return page;
 	}
+	/**
+	 * Get the WebClient that loaded the page being saved.  Support files are
+	 * loaded with it so parsers with their own WebClient stay independent.
+	 *
+	 * @return The page's WebClient.
+	 */
+	public WebClient getWebClient() {
+	    return getPage().getWebClient();
+	}
 	public void setPage(HtmlPage page) {
 		this.page = page;
 	}
@@ -148,4 +148,34 @@ public class ParsingUtils {
        return replaceMatchingAnchors( html, urlChanges,
                "[<]a\\s+[^>]*id\\s*=\\s*[\"']\\s*", "\\s*[\"'][^>]*[>]");
     }
+    /**
+     * Escape text for use in generated HTML.  Non-ASCII characters are
+     * written as character references so the page does not depend on the
+     * file encoding.
+     *
+     * @param s The text.
+     * @return The escaped text.
+     */
+    public static String escapeHtml( String s ) {
+        StringBuilder result = new StringBuilder(s.length());
+        for ( int i = 0; i < s.length(); ) {
+            int c = s.codePointAt(i);
+            switch ( c ) {
+                case '<': result.append("&lt;"); break;
+                case '>': result.append("&gt;"); break;
+                case '&': result.append("&amp;"); break;
+                case '"': result.append("&quot;"); break;
+                case '\'': result.append("&#39;"); break;
+                default:
+                    if ( c > 127 ) {
+                        result.append("&#").append(c).append(';');
+                    }
+                    else {
+                        result.append((char) c);
+                    }
+            }
+            i += Character.charCount(c);
+        }
+        return result.toString();
+    }
 }
@@ -0,0 +1,305 @@
+package org.sakaiproject.util.archiver;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Timing, byte and count statistics for an archive run, kept per tool and
+ * per phase (e.g. http, page.load, save.css, save.write, download).  Phase
+ * times are recorded in latency histograms so the report can show
+ * percentiles as well as totals.  Simple counters (pages saved, files
+ * downloaded, failures) are kept per tool as well.</p>
+ *
+ * <p>The tool is tracked per thread.  ToolParser sets it while a tool is
+ * parsed, and threads started by that thread inherit it.  Times recorded
+ * with no tool set are reported under "archiver".</p>
+ */
+public class RunMetrics {
+
+    /** Histogram bucket upper bounds in milliseconds (last bucket is open) */
+    public static final long[] BUCKET_MILLIS =
+        { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+    public static final String NO_TOOL = "archiver";
+
+    // Counter names
+    public static final String PAGES_SAVED = "pages.saved";
+    public static final String FILES_DOWNLOADED = "files.downloaded";
+    public static final String FILES_FAILED = "files.failed";
+    public static final String TOOL_FAILED = "tool.failed";
+
+    private ConcurrentMap<String,Stat> stats = new ConcurrentHashMap<String,Stat>();
+    private ConcurrentMap<String,AtomicLong> counters =
+            new ConcurrentHashMap<String,AtomicLong>();
+    private InheritableThreadLocal<String> tool = new InheritableThreadLocal<String>();
+
+    /**
+     * Statistics for one tool and phase.
+     */
+    public static class Stat {
+        private String tool;
+        private String phase;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long bytes;
+        private long[] buckets = new long[BUCKET_MILLIS.length + 1];
+
+        public Stat( String tool, String phase ) {
+            this.tool = tool;
+            this.phase = phase;
+        }
+        protected synchronized void add( long nanos, long bytes ) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            this.bytes += bytes;
+            long millis = nanos / 1000000;
+            int i = 0;
+            while ( i < BUCKET_MILLIS.length && millis > BUCKET_MILLIS[i] ) {
+                i++;
+            }
+            buckets[i]++;
+        }
+        protected void add( Stat other ) {
+            long[] otherBuckets = other.getBuckets();
+            synchronized (this) {
+                count += other.getCount();
+                totalNanos += other.getTotalNanos();
+                maxNanos = Math.max(maxNanos, other.getMaxNanos());
+                bytes += other.getBytes();
+                for ( int i = 0; i < buckets.length; i++ ) {
+                    buckets[i] += otherBuckets[i];
+                }
+            }
+        }
+        public String getTool() {
+            return tool;
+        }
+        public String getPhase() {
+            return phase;
+        }
+        public synchronized long getCount() {
+            return count;
+        }
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+        public synchronized long getBytes() {
+            return bytes;
+        }
+        public synchronized long[] getBuckets() {
+            return buckets.clone();
+        }
+        /**
+         * Estimate a percentile from the histogram.
+         *
+         * @param percent 0 to 100
+         * @return The upper bound (in ms) of the bucket the percentile is in,
+         *         capped at the maximum time.
+         */
+        public synchronized long getPercentileMillis( double percent ) {
+            if ( count == 0 ) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percent / 100.0);
+            long seen = 0;
+            for ( int i = 0; i < buckets.length; i++ ) {
+                seen += buckets[i];
+                if ( seen >= target ) {
+                    return i < BUCKET_MILLIS.length ?
+                            Math.min(BUCKET_MILLIS[i], maxNanos / 1000000) :
+                            maxNanos / 1000000;
+                }
+            }
+            return maxNanos / 1000000;
+        }
+    }
+
+    /**
+     * Set the tool that times recorded by the current thread (and threads it
+     * starts) belong to.
+     *
+     * @param toolName The tool or null to clear it.
+     */
+    public void setTool( String toolName ) {
+        if ( toolName == null ) {
+            tool.remove();
+        }
+        else {
+            tool.set(toolName);
+        }
+    }
+    /**
+     * @return The current thread's tool or null if none is set.
+     */
+    public String getTool() {
+        return tool.get();
+    }
+    /**
+     * Record a phase for the current thread's tool.
+     *
+     * @param phase
+     * @param startNanos The System.nanoTime() value when the phase started.
+     * @param bytes The bytes transferred or written (0 if not applicable).
+     */
+    public void record( String phase, long startNanos, long bytes ) {
+        record(getTool(), phase, System.nanoTime() - startNanos, bytes);
+    }
+    /**
+     * Record a phase.
+     *
+     * @param toolName The tool (null for none).
+     * @param phase
+     * @param nanos The time taken.
+     * @param bytes The bytes transferred or written (0 if not applicable).
+     */
+    public void record( String toolName, String phase, long nanos, long bytes ) {
+        if ( toolName == null ) {
+            toolName = NO_TOOL;
+        }
+        getOrCreateStat(toolName, phase).add(nanos, bytes);
+    }
+    private Stat getOrCreateStat( String toolName, String phase ) {
+        String key = toolName + "\t" + phase;
+        Stat stat = stats.get(key);
+        if ( stat == null ) {
+            Stat newStat = new Stat(toolName, phase);
+            stat = stats.putIfAbsent(key, newStat);
+            if ( stat == null ) {
+                stat = newStat;
+            }
+        }
+        return stat;
+    }
+    /**
+     * Add one to a counter for the current thread's tool.
+     *
+     * @param name The counter (e.g. PAGES_SAVED).
+     */
+    public void count( String name ) {
+        count(getTool(), name, 1);
+    }
+    /**
+     * Add to a counter.
+     *
+     * @param toolName The tool (null for none).
+     * @param name The counter.
+     * @param amount
+     */
+    public void count( String toolName, String name, long amount ) {
+        if ( toolName == null ) {
+            toolName = NO_TOOL;
+        }
+        String key = toolName + "\t" + name;
+        AtomicLong counter = counters.get(key);
+        if ( counter == null ) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if ( counter == null ) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(amount);
+    }
+    /**
+     * Get a counter value.
+     *
+     * @param toolName
+     * @param name
+     * @return The value (0 if never counted).
+     */
+    public long getCount( String toolName, String name ) {
+        AtomicLong counter = counters.get(toolName + "\t" + name);
+        return counter == null ? 0 : counter.get();
+    }
+    /**
+     * Get a counter's total over all the tools.
+     *
+     * @param name
+     * @return The total (0 if never counted).
+     */
+    public long getTotal( String name ) {
+        long total = 0;
+        for ( String tool: getTools() ) {
+            total += getCount(tool, name);
+        }
+        return total;
+    }
+    /**
+     * Get a phase's statistics.
+     *
+     * @param toolName
+     * @param phase
+     * @return The statistics or null if the phase was never recorded.
+     */
+    public Stat getStat( String toolName, String phase ) {
+        return stats.get(toolName + "\t" + phase);
+    }
+    /**
+     * @return The tools with statistics or counters, sorted.
+     */
+    public Set<String> getTools() {
+        Set<String> tools = new TreeSet<String>();
+        for ( Stat stat: stats.values() ) {
+            tools.add(stat.getTool());
+        }
+        for ( String key: counters.keySet() ) {
+            tools.add(key.substring(0, key.indexOf('\t')));
+        }
+        return tools;
+    }
+    /**
+     * Add another run's statistics and counters to these (e.g. to total the
+     * sites in a batch).
+     *
+     * @param other
+     */
+    public void merge( RunMetrics other ) {
+        for ( Stat stat: other.stats.values() ) {
+            getOrCreateStat(stat.getTool(), stat.getPhase()).add(stat);
+        }
+        for ( Map.Entry<String,AtomicLong> counter: other.counters.entrySet() ) {
+            String key = counter.getKey();
+            int tab = key.indexOf('\t');
+            count(key.substring(0, tab), key.substring(tab + 1), counter.getValue().get());
+        }
+    }
+    /**
+     * Get the statistics sorted by tool and phase.
+     *
+     * @return A map of "tool\tphase" to statistics.
+     */
+    public Map<String,Stat> getStats() {
+        return new TreeMap<String,Stat>(stats);
+    }
+    /**
+     * Get a table of the statistics for printing at the end of a run.
+     *
+     * @return The table.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %-18s %8s %11s %9s %8s %8s %8s %9s %12s%n",
+                "Tool", "Phase", "Count", "Total ms", "Avg ms", "p50 ms",
+                "p90 ms", "p99 ms", "Max ms", "Bytes"));
+        for ( Stat stat: getStats().values() ) {
+            long count = stat.getCount();
+            long totalMillis = stat.getTotalNanos() / 1000000;
+            report.append(String.format("%-12s %-18s %8d %11d %9.1f %8d %8d %8d %9d %12d%n",
+                    stat.getTool(), stat.getPhase(), count, totalMillis,
+                    count == 0 ? 0.0 : stat.getTotalNanos() / 1000000.0 / count,
+                    stat.getPercentileMillis(50), stat.getPercentileMillis(90),
+                    stat.getPercentileMillis(99), stat.getMaxNanos() / 1000000,
+                    stat.getBytes()));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,289 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+/**
+ * <p>Writes the results of archiving a site in machine readable form:</p>
+ * <ul>
+ * <li>A JSON report (archive-report.json in the site's archive directory)
+ *     with the pages saved, files downloaded, failures, bytes and wall time
+ *     for each tool, and the peak heap.</li>
+ * <li>A Prometheus text file (sakai_archiver_[site].prom) for the
+ *     node_exporter textfile collector, written to the
+ *     metrics.textfile.dir directory or the site's archive directory.</li>
+ * </ul>
+ * <p>Failures include links changed to fileNotFound.htm or
+ * image-not-found.jpg.  A run in which any tool threw an exception is not
+ * reported as a success.</p>
+ */
+public class RunReport {
+
+    public static final String REPORT_FILE = "archive-report.json";
+    public static final String METRIC_PREFIX = "sakai_archiver_";
+
+    private String site;
+    private boolean success;
+    private String error;
+    private long elapsedMillis;
+    private long finishedMillis;
+    private long peakHeap;
+    private RunMetrics metrics;
+
+    /**
+     * Create a report of a finished run.
+     *
+     * @param site The site id.
+     * @param metrics The run's metrics.
+     * @param success True if the run finished without an error.  The report
+     *        is a failure anyway if any tool failed.
+     * @param error The error (null if none).
+     * @param elapsedMillis The run's wall time.
+     */
+    public RunReport( String site, RunMetrics metrics, boolean success,
+                      String error, long elapsedMillis ) {
+        this.site = site;
+        this.metrics = metrics;
+        String toolError = getToolFailureError(metrics);
+        this.success = success && toolError == null;
+        this.error = error == null ? toolError : error;
+        this.elapsedMillis = elapsedMillis;
+        this.finishedMillis = System.currentTimeMillis();
+        this.peakHeap = getPeakHeapUsed();
+    }
+    /**
+     * Get the error for a run in which tools failed.
+     *
+     * @param metrics The run's metrics.
+     * @return The error or null if no tool failed.
+     */
+    public static String getToolFailureError( RunMetrics metrics ) {
+        long failures = metrics.getTotal(RunMetrics.TOOL_FAILED);
+        return failures == 0 ? null : failures + " tool(s) failed";
+    }
+    /**
+     * Get the peak heap used by the JVM so far (the total of the heap
+     * memory pools' peak usage).
+     *
+     * @return The peak in bytes.
+     */
+    public static long getPeakHeapUsed() {
+        long peak = 0;
+        for ( MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans() ) {
+            if ( pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null ) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+    /**
+     * Write the JSON report and the Prometheus text file.
+     *
+     * @param siteDir The site's archive directory.
+     * @param textfileDir The Prometheus text file directory (null or blank
+     *        to use the site's archive directory).
+     * @throws IOException
+     */
+    public void write( File siteDir, String textfileDir ) throws IOException {
+        writeAtomically(new File(siteDir, REPORT_FILE), toJson());
+        File promDir = textfileDir == null || textfileDir.trim().equals("") ?
+                siteDir : new File(textfileDir.trim());
+        String name = METRIC_PREFIX + site.replaceAll("[^A-Za-z0-9_.-]", "_") + ".prom";
+        writeAtomically(new File(promDir, name), toPrometheus());
+    }
+    /**
+     * Write to a temporary file and rename it so readers (e.g. the textfile
+     * collector) never see a partly written file.
+     */
+    private void writeAtomically( File file, String content ) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if ( ! temp.renameTo(file) ) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+    /**
+     * @return The report as JSON.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"site\": ").append(quote(site)).append(",\n");
+        json.append("  \"success\": ").append(success).append(",\n");
+        json.append("  \"error\": ").append(error == null ? "null" : quote(error)).append(",\n");
+        json.append("  \"finished\": ").append(finishedMillis).append(",\n");
+        json.append("  \"elapsedMillis\": ").append(elapsedMillis).append(",\n");
+        json.append("  \"peakHeapBytes\": ").append(peakHeap).append(",\n");
+        json.append("  \"totals\": ");
+        appendTotals(json, null);
+        json.append(",\n  \"tools\": {");
+        boolean first = true;
+        for ( String tool: metrics.getTools() ) {
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    ").append(quote(tool)).append(": ");
+            appendTotals(json, tool);
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+    private void appendTotals( StringBuilder json, String tool ) {
+        json.append("{ \"pagesSaved\": ").append(count(tool, RunMetrics.PAGES_SAVED))
+            .append(", \"filesDownloaded\": ").append(count(tool, RunMetrics.FILES_DOWNLOADED))
+            .append(", \"failures\": ").append(count(tool, RunMetrics.FILES_FAILED))
+            .append(", \"toolFailures\": ").append(count(tool, RunMetrics.TOOL_FAILED))
+            .append(", \"bytesDownloaded\": ").append(bytes(tool, "download"))
+            .append(", \"httpBytes\": ").append(bytes(tool, TimingWebConnection.PHASE))
+            .append(", \"httpRequests\": ").append(requests(tool, TimingWebConnection.PHASE));
+        if ( tool != null ) {
+            RunMetrics.Stat stat = metrics.getStat(tool, "tool");
+            json.append(", \"wallMillis\": ")
+                .append(stat == null ? 0 : stat.getTotalNanos() / 1000000);
+        }
+        json.append(" }");
+    }
+    /**
+     * @return The report in the Prometheus text exposition format.
+     */
+    public String toPrometheus() {
+        StringBuilder prom = new StringBuilder();
+        String siteLabel = "site=\"" + escapeLabel(site) + "\"";
+        gauge(prom, "success", "1 if the last archive of the site succeeded.");
+        prom.append(METRIC_PREFIX).append("success{").append(siteLabel).append("} ")
+            .append(success ? 1 : 0).append('\n');
+        gauge(prom, "last_run_timestamp_seconds", "When the last archive finished.");
+        prom.append(METRIC_PREFIX).append("last_run_timestamp_seconds{").append(siteLabel)
+            .append("} ").append(finishedMillis / 1000).append('\n');
+        gauge(prom, "duration_seconds", "Wall time of the last archive.");
+        prom.append(METRIC_PREFIX).append("duration_seconds{").append(siteLabel).append("} ")
+            .append(seconds(elapsedMillis * 1000000)).append('\n');
+        gauge(prom, "peak_heap_bytes", "Peak JVM heap used.");
+        prom.append(METRIC_PREFIX).append("peak_heap_bytes{").append(siteLabel).append("} ")
+            .append(peakHeap).append('\n');
+
+        toolMetric(prom, siteLabel, "pages_saved", "Pages saved.", RunMetrics.PAGES_SAVED);
+        toolMetric(prom, siteLabel, "files_downloaded", "Files downloaded.",
+                RunMetrics.FILES_DOWNLOADED);
+        toolMetric(prom, siteLabel, "failures",
+                "Files that could not be downloaded (linked to a not found page).",
+                RunMetrics.FILES_FAILED);
+        toolMetric(prom, siteLabel, "tool_failures",
+                "1 if the tool stopped with an error.", RunMetrics.TOOL_FAILED);
+        gauge(prom, "bytes_downloaded", "Bytes of files streamed to disk.");
+        for ( String tool: metrics.getTools() ) {
+            prom.append(METRIC_PREFIX).append("bytes_downloaded{").append(siteLabel)
+                .append(",tool=\"").append(escapeLabel(tool)).append("\"} ")
+                .append(bytes(tool, "download")).append('\n');
+        }
+        gauge(prom, "tool_duration_seconds", "Wall time of each tool.");
+        for ( String tool: metrics.getTools() ) {
+            RunMetrics.Stat stat = metrics.getStat(tool, "tool");
+            if ( stat != null ) {
+                prom.append(METRIC_PREFIX).append("tool_duration_seconds{").append(siteLabel)
+                    .append(",tool=\"").append(escapeLabel(tool)).append("\"} ")
+                    .append(seconds(stat.getTotalNanos())).append('\n');
+            }
+        }
+        gauge(prom, "phase_seconds", "Total time in each phase.");
+        for ( RunMetrics.Stat stat: metrics.getStats().values() ) {
+            prom.append(METRIC_PREFIX).append("phase_seconds{").append(siteLabel)
+                .append(",tool=\"").append(escapeLabel(stat.getTool()))
+                .append("\",phase=\"").append(escapeLabel(stat.getPhase())).append("\"} ")
+                .append(seconds(stat.getTotalNanos())).append('\n');
+        }
+        gauge(prom, "phase_count", "Number of times each phase ran.");
+        for ( RunMetrics.Stat stat: metrics.getStats().values() ) {
+            prom.append(METRIC_PREFIX).append("phase_count{").append(siteLabel)
+                .append(",tool=\"").append(escapeLabel(stat.getTool()))
+                .append("\",phase=\"").append(escapeLabel(stat.getPhase())).append("\"} ")
+                .append(stat.getCount()).append('\n');
+        }
+        return prom.toString();
+    }
+    private void toolMetric( StringBuilder prom, String siteLabel, String name,
+                             String help, String counter ) {
+        gauge(prom, name, help);
+        for ( String tool: metrics.getTools() ) {
+            prom.append(METRIC_PREFIX).append(name).append('{').append(siteLabel)
+                .append(",tool=\"").append(escapeLabel(tool)).append("\"} ")
+                .append(metrics.getCount(tool, counter)).append('\n');
+        }
+    }
+    private static void gauge( StringBuilder prom, String name, String help ) {
+        prom.append("# HELP ").append(METRIC_PREFIX).append(name).append(' ')
+            .append(help).append('\n');
+        prom.append("# TYPE ").append(METRIC_PREFIX).append(name).append(" gauge\n");
+    }
+    private long count( String tool, String counter ) {
+        return tool == null ? metrics.getTotal(counter) : metrics.getCount(tool, counter);
+    }
+    private long bytes( String tool, String phase ) {
+        long total = 0;
+        for ( RunMetrics.Stat stat: metrics.getStats().values() ) {
+            if ( stat.getPhase().equals(phase) &&
+                 ( tool == null || stat.getTool().equals(tool) ) ) {
+                total += stat.getBytes();
+            }
+        }
+        return total;
+    }
+    private long requests( String tool, String phase ) {
+        long total = 0;
+        for ( RunMetrics.Stat stat: metrics.getStats().values() ) {
+            if ( stat.getPhase().equals(phase) &&
+                 ( tool == null || stat.getTool().equals(tool) ) ) {
+                total += stat.getCount();
+            }
+        }
+        return total;
+    }
+    private static String seconds( long nanos ) {
+        return String.format(Locale.US, "%.3f", nanos / 1000000000.0);
+    }
+    private static String escapeLabel( String s ) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+    /**
+     * Quote a string for JSON.
+     *
+     * @param s
+     * @return The quoted string.
+     */
+    public static String quote( String s ) {
+        StringBuilder result = new StringBuilder(s.length() + 2);
+        result.append('"');
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            switch ( c ) {
+                case '"': result.append("\\\""); break;
+                case '\\': result.append("\\\\"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                case '\t': result.append("\\t"); break;
+                default:
+                    if ( c < 0x20 ) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        result.append(c);
+                    }
+            }
+        }
+        result.append('"');
+        return result.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package org.sakaiproject.util.archiver;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Index of the pages and support files (css, js, images, files, iframes)
+ * that have been saved to the archive.  Keys are canonical URLs so the same
+ * resource is found no matter how it was written in the page, and each key
+ * records the local path it was saved to.</p>
+ *
+ * <p>Lookups are O(1) and the index is safe to share between threads.</p>
+ */
+public class SavedPageIndex {
+
+    /** Map of canonical URL to local path */
+    private ConcurrentMap<String,String> index =
+            new ConcurrentHashMap<String,String>();
+
+    /**
+     * Check if a URL has been saved (or claimed for saving).
+     *
+     * @param url The fully qualified URL.
+     * @return True if the URL is in the index.
+     */
+    public boolean contains( String url ) {
+        return index.containsKey(canonicalize(url));
+    }
+    public boolean contains( URL url ) {
+        return contains(url.toExternalForm());
+    }
+    /**
+     * Get the local path a URL was saved to.
+     *
+     * @param url The fully qualified URL.
+     * @return The local path or null if not in the index.
+     */
+    public String getLocalPath( String url ) {
+        return index.get(canonicalize(url));
+    }
+    public String getLocalPath( URL url ) {
+        return getLocalPath(url.toExternalForm());
+    }
+    /**
+     * Record the local path a URL was saved to.  Replaces any existing entry.
+     *
+     * @param url The fully qualified URL.
+     * @param localPath The local path (relative to the archive base or page)
+     */
+    public void add( String url, String localPath ) {
+        index.put(canonicalize(url), localPath);
+    }
+    public void add( URL url, String localPath ) {
+        add(url.toExternalForm(), localPath);
+    }
+    /**
+     * Add the URL to the index if it is not there already.  Used to make sure
+     * only one caller saves a URL.
+     *
+     * @param url The fully qualified URL.
+     * @param localPath The local path the URL will be saved to.
+     * @return True if the caller added the URL and should save it.
+     */
+    public boolean claim( String url, String localPath ) {
+        return index.putIfAbsent(canonicalize(url), localPath) == null;
+    }
+    public boolean claim( URL url, String localPath ) {
+        return claim(url.toExternalForm(), localPath);
+    }
+    /**
+     * Remove a URL from the index (e.g. if a claimed save failed).
+     *
+     * @param url The fully qualified URL.
+     */
+    public void remove( String url ) {
+        index.remove(canonicalize(url));
+    }
+    public int size() {
+        return index.size();
+    }
+    /**
+     * Convert a URL to the form used as an index key.  The scheme and host are
+     * lower cased, default ports, fragments and jsessionid path parameters
+     * are removed, dot segments are resolved, and percent escapes are
+     * normalized.  Strings that are not URLs are returned trimmed.
+     *
+     * @param url
+     * @return The canonical URL.
+     */
+    public static String canonicalize( String url ) {
+        if ( url == null ) {
+            return null;
+        }
+        String trimmed = url.trim();
+        URL u;
+        try {
+            u = new URL(trimmed);
+        } catch (MalformedURLException e) {
+            return trimmed;
+        }
+        StringBuilder key = new StringBuilder(trimmed.length());
+        key.append(u.getProtocol().toLowerCase(Locale.ENGLISH)).append("://");
+        if ( u.getHost() != null ) {
+            key.append(u.getHost().toLowerCase(Locale.ENGLISH));
+        }
+        if ( u.getPort() != -1 && u.getPort() != u.getDefaultPort() ) {
+            key.append(':').append(u.getPort());
+        }
+        String path = u.getPath();
+        int session = path.toLowerCase(Locale.ENGLISH).indexOf(";jsessionid=");
+        if ( session >= 0 ) {
+            path = path.substring(0, session);
+        }
+        key.append(normalizeEscapes(normalizePath(path)));
+        if ( u.getQuery() != null ) {
+            key.append('?').append(normalizeEscapes(u.getQuery()));
+        }
+        return key.toString();
+    }
+    /**
+     * Resolve . and .. segments in a URL path.
+     *
+     * @param path
+     * @return The path, always starting with /
+     */
+    protected static String normalizePath( String path ) {
+        if ( path.equals("") ) {
+            return "/";
+        }
+        if ( ! path.contains("/.") ) {
+            return path;
+        }
+        List<String> segments = new ArrayList<String>();
+        for ( String segment: path.split("/", -1) ) {
+            if ( segment.equals(".") ) {
+                continue;
+            }
+            if ( segment.equals("..") ) {
+                if ( segments.size() > 1 ) {
+                    segments.remove(segments.size() - 1);
+                }
+                continue;
+            }
+            segments.add(segment);
+        }
+        StringBuilder result = new StringBuilder();
+        for ( int i = 0; i < segments.size(); i++ ) {
+            if ( i > 0 ) {
+                result.append('/');
+            }
+            result.append(segments.get(i));
+        }
+        if ( path.endsWith("/.") || path.endsWith("/..") ) {
+            result.append('/');
+        }
+        if ( result.length() == 0 || result.charAt(0) != '/' ) {
+            result.insert(0, '/');
+        }
+        return result.toString();
+    }
+    /**
+     * Upper case percent escapes and decode escaped unreserved characters
+     * (letters, digits, -._~).
+     *
+     * @param s
+     * @return The normalized string.
+     */
+    protected static String normalizeEscapes( String s ) {
+        if ( s.indexOf('%') < 0 ) {
+            return s;
+        }
+        StringBuilder result = new StringBuilder(s.length());
+        int i = 0;
+        while ( i < s.length() ) {
+            char c = s.charAt(i);
+            if ( c == '%' && i + 2 < s.length() && isHex(s.charAt(i + 1))
+                    && isHex(s.charAt(i + 2)) ) {
+                int value = Integer.parseInt(s.substring(i + 1, i + 3), 16);
+                if ( isUnreserved((char) value) ) {
+                    result.append((char) value);
+                }
+                else {
+                    result.append('%').append(s.substring(i + 1, i + 3).toUpperCase(Locale.ENGLISH));
+                }
+                i += 3;
+                continue;
+            }
+            result.append(c);
+            i++;
+        }
+        return result.toString();
+    }
+    private static boolean isHex( char c ) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') ||
+               (c >= 'A' && c <= 'F');
+    }
+    private static boolean isUnreserved( char c ) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' ||
+               c == '~';
+    }
+}
@@ -0,0 +1,396 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import com.gargoylesoftware.htmlunit.FormEncodingType;
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+
+/**
+ * <p>Downloads files straight to disk.  HtmlUnit's WebResponse reads the
+ * whole body into memory (or a temp file) before it can be used, which
+ * doubles the disk I/O and heap use for large files like lecture videos.
+ * This sends the request with Apache HttpClient and copies the response
+ * entity to the file through an NIO channel with a fixed size buffer, so
+ * memory use stays flat no matter how big the file is.</p>
+ *
+ * <p>Requests are HtmlUnit WebRequests (e.g. a link URL or a form submit
+ * from HtmlForm.getWebRequest) and are sent with the cookies of the
+ * WebClient that would have made them, so they use the same Sakai
+ * session.  This class is thread safe.</p>
+ */
+public class StreamingDownloader {
+
+    /** Size of the copy buffer */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** Returned by download when the server says the file has not changed */
+    public static final long NOT_MODIFIED = -1;
+    /** Suffix of the temporary file a download is written to */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Checks a response's content type before its body is saved.
+     */
+    public interface ContentCheck {
+        /**
+         * @param contentType The Content-Type header (null if none).
+         * @throws IOException If the response should not be saved.
+         */
+        void check( String contentType ) throws IOException;
+    }
+
+    private CloseableHttpClient httpClient;
+    private String userAgent;
+    private int timeout;
+    /** Where download times are recorded (may be null) */
+    private RunMetrics metrics;
+
+    /**
+     * Create a downloader that looks like the WebClient's browser.
+     *
+     * @param template The WebClient to copy the user agent and timeout from.
+     * @param maxConnections The maximum number of concurrent connections.
+     */
+    public StreamingDownloader( WebClient template, int maxConnections ) {
+        userAgent = template.getBrowserVersion().getUserAgent();
+        timeout = template.getOptions().getTimeout();
+        PoolingHttpClientConnectionManager connections =
+                new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(Math.max(2, maxConnections));
+        connections.setDefaultMaxPerRoute(Math.max(2, maxConnections));
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setRedirectStrategy(new LaxRedirectStrategy())
+                .setUserAgent(userAgent)
+                .build();
+    }
+    /**
+     * Send the request and save the response body to the file.
+     *
+     * @param client The WebClient whose cookies should be sent.
+     * @param request The request to send.
+     * @param file The file to save to (parent directories are created).
+     * @return The number of bytes saved.
+     * @throws IOException If the request failed or the server returned an
+     *         error status.
+     */
+    public long download( WebClient client, WebRequest request, File file )
+            throws IOException {
+        return download(client, request, file, null);
+    }
+    /**
+     * Send the request and save the response body to the file, using the
+     * manifest to make the request conditional.  If the server says the file
+     * has not changed, the existing file is left alone.  Otherwise the
+     * manifest entry is updated with the new headers, size and checksum.
+     *
+     * @param client The WebClient whose cookies should be sent.
+     * @param request The request to send.
+     * @param file The file to save to (parent directories are created).
+     * @param manifest The archive manifest (may be null)
+     * @return The number of bytes saved or NOT_MODIFIED.
+     * @throws IOException If the request failed or the server returned an
+     *         error status.
+     */
+    public long download( WebClient client, WebRequest request, File file,
+                          ArchiveManifest manifest ) throws IOException {
+        return download(client, request, file, manifest, null);
+    }
+    /**
+     * Send the request and save the response body to the file if it passes
+     * a content type check (see download(WebClient, WebRequest, File,
+     * ArchiveManifest)).
+     *
+     * @param client The WebClient whose cookies should be sent.
+     * @param request The request to send.
+     * @param file The file to save to (parent directories are created).
+     * @param manifest The archive manifest (may be null)
+     * @param check Checks the content type before anything is written (may
+     *        be null)
+     * @return The number of bytes saved or NOT_MODIFIED.
+     * @throws IOException If the request failed, the server returned an
+     *         error status or the check failed.
+     */
+    public long download( WebClient client, WebRequest request, File file,
+                          ArchiveManifest manifest, ContentCheck check )
+            throws IOException {
+        long start = System.nanoTime();
+        long size = send(client, request, file, manifest, check);
+        if ( metrics != null ) {
+            metrics.record("download", start, size == NOT_MODIFIED ? 0 : size);
+        }
+        return size;
+    }
+    private long send( WebClient client, WebRequest request, File file,
+                       ArchiveManifest manifest, ContentCheck check )
+            throws IOException {
+        boolean conditional = manifest != null &&
+                manifest.addConditionalHeaders(request, file);
+        HttpRequestBase method = createMethod(request);
+        HttpClientContext context = createContext(client);
+        CloseableHttpResponse response = httpClient.execute(method, context);
+        try {
+            if ( conditional && response.getStatusLine().getStatusCode() ==
+                    HttpStatus.SC_NOT_MODIFIED ) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return NOT_MODIFIED;
+            }
+            checkStatus(response);
+            if ( check != null ) {
+                try {
+                    check.check(getHeader(response, "Content-Type"));
+                } catch ( IOException e ) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    throw e;
+                }
+            }
+            MessageDigest digest = manifest == null ? null :
+                    ArchiveManifest.newDigest();
+            long size = saveEntity(response.getEntity(), file, digest);
+            if ( manifest != null ) {
+                manifest.update(request.getUrl(), file,
+                        getHeader(response, "ETag"),
+                        getHeader(response, "Last-Modified"), size,
+                        ArchiveManifest.toHex(digest.digest()));
+            }
+            return size;
+        } finally {
+            response.close();
+        }
+    }
+    /**
+     * Send any HttpClient request (e.g. a WebDAV PROPFIND) with the
+     * WebClient's cookies.  The caller must close the response.
+     *
+     * @param client The WebClient whose cookies should be sent.
+     * @param request
+     * @return The response.
+     * @throws IOException
+     */
+    public CloseableHttpResponse execute( WebClient client, HttpUriRequest request )
+            throws IOException {
+        return httpClient.execute(request, createContext(client));
+    }
+    private String getHeader( HttpResponse response, String name ) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+    /**
+     * Throw an IOException (after releasing the connection) if the response
+     * is an error.
+     *
+     * @param response
+     * @throws IOException
+     */
+    protected void checkStatus( HttpResponse response ) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if ( status >= 400 ) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw new IOException("Server returned " + response.getStatusLine());
+        }
+    }
+    /**
+     * Copy the response entity to the file through a fixed size buffer.
+     * The body is written to a .part file next to the target, which is
+     * renamed over the target once the copy is complete, so a failed
+     * transfer leaves any earlier copy of the file as it was.
+     *
+     * @param entity The response entity (may be null for an empty body)
+     * @param file
+     * @param digest Digest to update with the bytes written (may be null)
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public static long saveEntity( HttpEntity entity, File file,
+                                   MessageDigest digest ) throws IOException {
+        file.getParentFile().mkdirs();
+        File part = new File(file.getParentFile(), file.getName() + PART_SUFFIX);
+        long size = 0;
+        boolean saved = false;
+        try {
+            FileOutputStream out = new FileOutputStream(part);
+            try {
+                if ( entity != null ) {
+                    InputStream in = entity.getContent();
+                    try {
+                        size = copy(Channels.newChannel(in), out.getChannel(), digest);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(part.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch ( AtomicMoveNotSupportedException e ) {
+                Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if ( ! saved ) {
+                part.delete();
+            }
+        }
+        return size;
+    }
+    /**
+     * Copy a channel to a file channel with a fixed size direct buffer.
+     *
+     * @param in
+     * @param out
+     * @param digest Digest to update with the bytes copied (may be null)
+     * @return The number of bytes copied.
+     * @throws IOException
+     */
+    public static long copy( ReadableByteChannel in, FileChannel out,
+                             MessageDigest digest ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long size = 0;
+        while ( in.read(buffer) != -1 ) {
+            buffer.flip();
+            if ( digest != null ) {
+                digest.update(buffer.duplicate());
+            }
+            while ( buffer.hasRemaining() ) {
+                size += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return size;
+    }
+    /**
+     * Build an HttpClient context with a cookie store holding the WebClient's
+     * cookies.
+     *
+     * @param client
+     * @return The context for a single request.
+     */
+    protected HttpClientContext createContext( WebClient client ) {
+        BasicCookieStore cookies = new BasicCookieStore();
+        for ( Cookie cookie: client.getCookieManager().getCookies() ) {
+            cookies.addCookie(cookie.toHttpClient());
+        }
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(cookies);
+        context.setRequestConfig(RequestConfig.custom()
+                .setCookieSpec(CookieSpecs.DEFAULT)
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build());
+        return context;
+    }
+    /**
+     * Convert an HtmlUnit request into an HttpClient one.
+     *
+     * @param request
+     * @return The HttpClient method.
+     * @throws IOException
+     */
+    protected HttpRequestBase createMethod( WebRequest request ) throws IOException {
+        HttpRequestBase method;
+        try {
+            if ( request.getHttpMethod() == HttpMethod.POST ) {
+                HttpPost post = new HttpPost(request.getUrl().toURI());
+                post.setEntity(createEntity(request));
+                method = post;
+            }
+            else {
+                method = new HttpGet(request.getUrl().toURI());
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + request.getUrl());
+        }
+        for ( Map.Entry<String,String> header: request.getAdditionalHeaders().entrySet() ) {
+            method.setHeader(header.getKey(), header.getValue());
+        }
+        return method;
+    }
+    /**
+     * Build the body of a POST request.
+     *
+     * @param request
+     * @return The request entity.
+     */
+    protected HttpEntity createEntity( WebRequest request ) {
+        Charset charset = Charset.forName(request.getCharset());
+        if ( request.getRequestBody() != null ) {
+            return new StringEntity(request.getRequestBody(), charset);
+        }
+        if ( request.getEncodingType() == FormEncodingType.MULTIPART ) {
+            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+            builder.setCharset(charset);
+            ContentType text = ContentType.create("text/plain", charset);
+            for ( NameValuePair pair: request.getRequestParameters() ) {
+                builder.addTextBody(pair.getName(), pair.getValue(), text);
+            }
+            return builder.build();
+        }
+        List<org.apache.http.NameValuePair> params =
+                new ArrayList<org.apache.http.NameValuePair>();
+        for ( NameValuePair pair: request.getRequestParameters() ) {
+            params.add(new BasicNameValuePair(pair.getName(), pair.getValue()));
+        }
+        return new UrlEncodedFormEntity(params, charset);
+    }
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+    /**
+     * Release the connections.
+     */
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // Nothing useful to do.
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+/**
+ * Records the time and bytes of every request a WebClient sends (the
+ * "http" phase in RunMetrics), separate from the time HtmlUnit spends
+ * parsing the page and running its JavaScript.
+ */
+public class TimingWebConnection extends WebConnectionWrapper {
+
+    public static final String PHASE = "http";
+
+    private RunMetrics metrics;
+
+    /**
+     * Wrap a WebClient's connection.  The wrapper installs itself as the
+     * client's connection.
+     *
+     * @param client
+     * @param metrics
+     */
+    public TimingWebConnection( WebClient client, RunMetrics metrics ) {
+        super(client);
+        this.metrics = metrics;
+    }
+    @Override
+    public WebResponse getResponse( WebRequest request ) throws IOException {
+        long start = System.nanoTime();
+        WebResponse response = null;
+        try {
+            response = super.getResponse(request);
+            return response;
+        } finally {
+            metrics.record(PHASE, start, response == null ? 0 : getSize(response));
+        }
+    }
+    /**
+     * Get the response size from the Content-Length header, or by reading
+     * the (already downloaded) body if there isn't one.
+     *
+     * @param response
+     * @return The size in bytes.
+     */
+    public static long getSize( WebResponse response ) {
+        String length = response.getResponseHeaderValue("Content-Length");
+        if ( length != null ) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch ( NumberFormatException e ) {
+                // Count the body.
+            }
+        }
+        try {
+            InputStream in = response.getContentAsStream();
+            if ( in == null ) {
+                return 0;
+            }
+            try {
+                return IOUtils.skip(in, Long.MAX_VALUE);
+            } finally {
+                in.close();
+            }
+        } catch ( IOException e ) {
+            return 0;
+        }
+    }
+}
@@ -13,18 +13,25 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 
 import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.html.HtmlInlineFrame;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 public abstract class ToolParser {
 
+	/** How long a sub-crawl waits for an extra pooled session */
+	public static final int SUB_SESSION_WAIT_SECONDS = 5;
+
 	private String mainURL;
 	private String toolURL;
 	private Archiver archiver;
+	/** The parser's own client when tools are parsed in parallel */
+	private WebClient webClient;
 	private String subdirectory;
 	private String mainPage;
 	private HtmlPage currentPage;
@@ -53,14 +60,32 @@ public abstract class ToolParser {
 
 	public void parse( Archiver archiver ) throws Exception {
 		setArchiver(archiver);
+		ArchiveJournal journal = archiver.getJournal();
+		if ( journal != null && journal.isToolComplete(getToolName()) ) {
+			msg("Skipping tool completed in previous run:  " + getToolName(),
+			        Archiver.NORMAL);
+			return;
+		}
 		msg("Parsing tool:  " + getToolName(), Archiver.NORMAL);
+		RunMetrics metrics = archiver.getMetrics();
+		metrics.setTool(getToolName());
+		long start = System.nanoTime();
         init();
+        boolean complete = false;
 		try {
 			parse();
+			complete = true;
 		} catch (Exception e) {
+			msg("Tool failed:  " + getToolName() + " (" + e + ")", Archiver.ERROR);
 			e.printStackTrace();
+			metrics.count(RunMetrics.TOOL_FAILED);
 		}
 		fini();
+		metrics.record("tool", start, 0);
+		metrics.setTool(null);
+		if ( complete && journal != null ) {
+			journal.toolComplete(getToolName());
+		}
 	}
     /**
      * Set up for tool parsing.
@@ -138,7 +163,9 @@ public abstract class ToolParser {
 		PageInfo info = new PageInfo(page);
 		info.setTool(getToolName());
 		info.setLocalURL("file://" + getPath() + "index.html");
-		getArchiver().getSitePages().addLeaf(info);
+		synchronized (getArchiver().getSitePages()) {
+		    getArchiver().getSitePages().addLeaf(info);
+		}
 	}
 	/**
 	 * Save a page and associated information.
@@ -148,10 +175,19 @@ public abstract class ToolParser {
 	 * @throws IOException
 	 */
     public void savePage(HtmlPage page, String filepath) throws Exception {
+        ArchiveJournal journal = getArchiver().getJournal();
+        if ( journal != null && journal.isPageComplete(filepath) ) {
+            msg("Skipping page saved in previous run: " + filepath, Archiver.NORMAL);
+            return;
+        }
 		PageSaver pageSaver = new PageSaver(getArchiver());
 		pageSaver.setParser(this);
 		pageSaver.save(page, filepath);
+		getArchiver().getMetrics().count(RunMetrics.PAGES_SAVED);
         msg("Saved '" + page.getTitleText() + "' in " + filepath, Archiver.NORMAL);
+        if ( journal != null ) {
+            journal.pageComplete(filepath, page.getUrl());
+        }
     }
 
     /**
@@ -186,9 +222,33 @@ public abstract class ToolParser {
     abstract public String getToolName();
 
 	public HtmlPage loadPage(String url) throws FailingHttpStatusCodeException, MalformedURLException, IOException {
-		HtmlPage page = getArchiver().getWebClient().getPage(url);
+		long start = System.nanoTime();
+		ArchiverEvents.PageLoad event = new ArchiverEvents.PageLoad();
+		event.begin();
+		HtmlPage page = getWebClient().getPage(url);
+		getArchiver().getMetrics().record("page.load", start, 0);
+		commitPageLoad(event, "loadPage", url, page);
 		return page;
 	}
+	/**
+	 * Commit a page load event if it is being recorded.
+	 *
+	 * @param event
+	 * @param operation The ToolParser method that loaded the page.
+	 * @param url The URL requested.
+	 * @param page The page loaded.
+	 */
+	protected void commitPageLoad( ArchiverEvents.PageLoad event, String operation,
+	                               String url, HtmlPage page ) {
+		if ( ! event.shouldCommit() ) {
+			return;
+		}
+		event.operation = operation;
+		event.tool = getToolName();
+		event.url = url;
+		event.bytes = page == null ? 0 : TimingWebConnection.getSize(page.getWebResponse());
+		event.commit();
+	}
 	/**
 	 * Save raw content to a file.
 	 *
@@ -196,6 +256,8 @@ public abstract class ToolParser {
 	 * @param path The file path relative to the archive base path.
 	 */
 	public void saveContentString(String content, String path ) throws FileNotFoundException {
+		ArchiverEvents.ContentWrite event = new ArchiverEvents.ContentWrite();
+		event.begin();
 		File file = new File(getArchiver().getBasePath() + path );
 		file.getParentFile().mkdirs();
 		PrintWriter out = new PrintWriter(file);
@@ -204,6 +266,12 @@ public abstract class ToolParser {
 		} finally {
 			out.close();
 		}
+		if ( event.shouldCommit() ) {
+			event.tool = getToolName();
+			event.localPath = path;
+			event.bytes = file.length();
+			event.commit();
+		}
 	}
 	/**
 	 * Get a tool view page.
@@ -224,7 +292,7 @@ public abstract class ToolParser {
 	    URL url = page.getUrl();
 	    String viewURL = url.toString().split("\\?")[0] +
 	            "?sakai_action=doView&view=" + view;
-	    HtmlPage viewPage = getArchiver().getWebClient().getPage(viewURL);
+	    HtmlPage viewPage = getWebClient().getPage(viewURL);
 	    return viewPage;
 	}
 	public String getPortletMainIframeURL( HtmlPage page ) {
@@ -243,6 +311,21 @@ public abstract class ToolParser {
 	public HtmlPage resetTool()
 	        throws FailingHttpStatusCodeException, MalformedURLException,
 	               IOException {
+	    return resetTool(getWebClient());
+	}
+	/**
+	 * Issue a tool reset with a specific WebClient (e.g. one checked out of
+	 * the Archiver's pool).
+	 *
+	 * @param client
+	 * @return The tool's reset page.
+	 * @throws FailingHttpStatusCodeException
+	 * @throws MalformedURLException
+	 * @throws IOException
+	 */
+	public HtmlPage resetTool( WebClient client )
+	        throws FailingHttpStatusCodeException, MalformedURLException,
+	               IOException {
 	    String toolUrl = getToolURL();
 	    if ( toolUrl == null || ! toolUrl.contains("/tool/")) {
 	        msg("COULD NOT RESET TOOL: " + getToolName() +
@@ -250,7 +333,13 @@ public abstract class ToolParser {
 	        return null;
 	    }
 	    String resetUrl = toolUrl.replaceAll("/tool/", "/tool-reset/");
-        return getArchiver().getWebClient().getPage(resetUrl);
+	    long start = System.nanoTime();
+	    ArchiverEvents.PageLoad event = new ArchiverEvents.PageLoad();
+	    event.begin();
+	    HtmlPage page = client.getPage(resetUrl);
+	    getArchiver().getMetrics().record("page.load", start, 0);
+	    commitPageLoad(event, "resetTool", resetUrl, page);
+        return page;
 	}
 	/**
 	 * Load the tool's main (iframe) page
@@ -265,7 +354,13 @@ public abstract class ToolParser {
                     ".  The main url was invalid or null.", Archiver.ERROR);
             return null;
         }
-        return getArchiver().getWebClient().getPage(toolUrl);
+        long start = System.nanoTime();
+        ArchiverEvents.PageLoad event = new ArchiverEvents.PageLoad();
+        event.begin();
+        HtmlPage page = getWebClient().getPage(toolUrl);
+        getArchiver().getMetrics().record("page.load", start, 0);
+        commitPageLoad(event, "loadToolMainPage", toolUrl, page);
+        return page;
 
 	}
 	/**
@@ -305,6 +400,50 @@ public abstract class ToolParser {
 	public void setArchiver(Archiver archiver) {
 		this.archiver = archiver;
 	}
+	/**
+	 * Get the WebClient used to load this tool's pages.
+	 *
+	 * @return The parser's own WebClient if one has been set, otherwise the
+	 *         Archiver's WebClient.
+	 */
+	public WebClient getWebClient() {
+	    if ( webClient != null ) {
+	        return webClient;
+	    }
+	    return getArchiver().getWebClient();
+	}
+	/**
+	 * Get an extra session from the Archiver's WebClient pool for a
+	 * sub-crawl (e.g. loading submissions on several sessions).  Only waits
+	 * SUB_SESSION_WAIT_SECONDS for one, because in parallel tool mode this
+	 * parser may already hold a pooled client and every other client may be
+	 * held by a tool waiting the same way.  Return it with releaseSubSession.
+	 *
+	 * @return A pooled client or null if there is no pool or none was free,
+	 *         in which case the work should be done with getWebClient().
+	 * @throws InterruptedException
+	 */
+	protected WebClient checkoutSubSession() throws InterruptedException {
+	    WebClientPool pool = getArchiver().getWebClientPool();
+	    if ( pool == null ) {
+	        return null;
+	    }
+	    return pool.checkout(SUB_SESSION_WAIT_SECONDS, TimeUnit.SECONDS);
+	}
+	protected void releaseSubSession( WebClient client ) {
+	    if ( client != null ) {
+	        getArchiver().getWebClientPool().release(client);
+	    }
+	}
+	/**
+	 * Give the parser its own WebClient (e.g. so tools can be parsed in
+	 * parallel).  Set to null to use the Archiver's WebClient.
+	 *
+	 * @param webClient
+	 */
+	public void setWebClient(WebClient webClient) {
+	    this.webClient = webClient;
+	}
 	/**
 	 * Get the tool subdirectory.
 	 * @return The subdirectory with a trailing /
@@ -0,0 +1,249 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gargoylesoftware.htmlunit.TopLevelWindow;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+/**
+ * <p>Pool of WebClients that share the Sakai session.  HtmlUnit WebClients
+ * are not thread safe, so code that loads pages on several threads checks
+ * a client out of the pool, uses it on one thread, and returns it.</p>
+ *
+ * <p>Clients are created as needed by Archiver.createWebClient (which sets
+ * up the JSESSIONID cookie, browser version and script error options) up to
+ * the pool size set by the session.pool.size property.  When all clients
+ * are in use, checkout waits for one to be returned.</p>
+ *
+ * <p>Checkout, return, creation and wait counts are kept so the pool size
+ * can be tuned.</p>
+ */
+public class WebClientPool {
+
+    private Archiver archiver;
+    private int maxSize;
+    private BlockingQueue<WebClient> idle;
+    /** All clients created so they can be closed at shutdown */
+    private List<WebClient> allClients;
+    private boolean closed;
+
+    // Metrics
+    private AtomicInteger created = new AtomicInteger();
+    private AtomicInteger inUse = new AtomicInteger();
+    private AtomicInteger maxInUse = new AtomicInteger();
+    private AtomicLong checkouts = new AtomicLong();
+    private AtomicLong returns = new AtomicLong();
+    private AtomicLong waits = new AtomicLong();
+    private AtomicLong waitNanos = new AtomicLong();
+    private AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Create an empty pool.
+     *
+     * @param archiver The archiver used to create clients.
+     * @param maxSize The maximum number of clients.
+     */
+    public WebClientPool( Archiver archiver, int maxSize ) {
+        setArchiver(archiver);
+        this.maxSize = Math.max(1, maxSize);
+        idle = new LinkedBlockingQueue<WebClient>();
+        allClients = new ArrayList<WebClient>();
+    }
+    /**
+     * Get a client for use by the current thread, waiting for one to be
+     * returned if the pool is at its maximum size.
+     *
+     * @return A client with the Sakai session cookie.
+     * @throws InterruptedException
+     */
+    public WebClient checkout() throws InterruptedException {
+        WebClient client = idle.poll();
+        if ( client == null ) {
+            client = create();
+        }
+        if ( client == null ) {
+            waits.incrementAndGet();
+            long start = System.nanoTime();
+            client = idle.take();
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+        checkedOut();
+        return client;
+    }
+    /**
+     * Get a client for use by the current thread, waiting no longer than
+     * the timeout for one to be returned.  Used for sub-crawls by code that
+     * already holds a client, since waiting without a limit could deadlock
+     * once every client is held by a caller waiting for another.
+     *
+     * @param timeout
+     * @param unit
+     * @return A client or null if none was free in time.
+     * @throws InterruptedException
+     */
+    public WebClient checkout( long timeout, TimeUnit unit ) throws InterruptedException {
+        WebClient client = idle.poll();
+        if ( client == null ) {
+            client = create();
+        }
+        if ( client == null ) {
+            waits.incrementAndGet();
+            long start = System.nanoTime();
+            client = idle.poll(timeout, unit);
+            waitNanos.addAndGet(System.nanoTime() - start);
+            if ( client == null ) {
+                timeouts.incrementAndGet();
+                return null;
+            }
+        }
+        checkedOut();
+        return client;
+    }
+    private void checkedOut() {
+        checkouts.incrementAndGet();
+        int count = inUse.incrementAndGet();
+        int max;
+        while ( count > (max = maxInUse.get()) &&
+                ! maxInUse.compareAndSet(max, count) ) {
+            // Try again.
+        }
+    }
+    /**
+     * Return a client to the pool.  The client must not be used after it
+     * is returned.  It is reset first so the next caller does not get the
+     * previous caller's windows, page or history.
+     *
+     * @param client
+     */
+    public void release( WebClient client ) {
+        if ( client == null ) {
+            return;
+        }
+        returns.incrementAndGet();
+        inUse.decrementAndGet();
+        synchronized (this) {
+            if ( closed ) {
+                client.close();
+                return;
+            }
+        }
+        // Don't hand out a client in an unknown state, let create() replace
+        // it.
+        try {
+            reset(client);
+        } catch ( IOException e ) {
+            discard(client);
+            return;
+        } catch ( RuntimeException e ) {
+            discard(client);
+            return;
+        }
+        idle.offer(client);
+    }
+    /**
+     * Close all the client's windows and load about:blank in the new top
+     * window HtmlUnit opens when the last one is closed.  This leaves the
+     * client with a single blank window and a history with just that page.
+     *
+     * @param client
+     * @throws IOException
+     */
+    protected void reset( WebClient client ) throws IOException {
+        List<TopLevelWindow> windows =
+                new ArrayList<TopLevelWindow>(client.getTopLevelWindows());
+        for ( TopLevelWindow window: windows ) {
+            window.close();
+        }
+        client.getPage(client.getCurrentWindow(),
+                new WebRequest(WebClient.URL_ABOUT_BLANK));
+    }
+    /**
+     * Close a client and remove it from the pool.
+     *
+     * @param client
+     */
+    private synchronized void discard( WebClient client ) {
+        allClients.remove(client);
+        client.close();
+    }
+    /**
+     * Create a new client if the pool is not full.
+     *
+     * @return The new client or null if the pool is full.
+     */
+    protected synchronized WebClient create() {
+        if ( closed ) {
+            throw new IllegalStateException("WebClient pool is closed");
+        }
+        if ( allClients.size() >= maxSize ) {
+            return null;
+        }
+        WebClient client = getArchiver().createWebClient();
+        allClients.add(client);
+        created.incrementAndGet();
+        return client;
+    }
+    /**
+     * Close all the clients.  Clients that are still checked out are closed
+     * as well, so this should only be called when the work is done.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        for ( WebClient client: allClients ) {
+            client.close();
+        }
+        allClients.clear();
+        idle.clear();
+    }
+    /**
+     * Get a one line summary of the pool metrics.
+     *
+     * @return The metrics.
+     */
+    public String getStats() {
+        return "WebClient pool: size=" + maxSize + " created=" + created.get() +
+               " checkouts=" + checkouts.get() + " returns=" + returns.get() +
+               " inUse=" + inUse.get() + " maxInUse=" + maxInUse.get() +
+               " waits=" + waits.get() +
+               " waitMs=" + (waitNanos.get() / 1000000) +
+               " timeouts=" + timeouts.get();
+    }
+    public int getMaxSize() {
+        return maxSize;
+    }
+    public int getCreated() {
+        return created.get();
+    }
+    public int getInUse() {
+        return inUse.get();
+    }
+    public int getMaxInUse() {
+        return maxInUse.get();
+    }
+    public long getCheckouts() {
+        return checkouts.get();
+    }
+    public long getReturns() {
+        return returns.get();
+    }
+    public long getWaits() {
+        return waits.get();
+    }
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+    public Archiver getArchiver() {
+        return archiver;
+    }
+    public void setArchiver(Archiver archiver) {
+        this.archiver = archiver;
+    }
+}
@@ -0,0 +1,233 @@
+package org.sakaiproject.util.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+
+/**
+ * <p>Lists the files in a WebDAV collection (e.g. Sakai's /dav/[site id]/
+ * view of a site's resources) with PROPFIND requests.  The whole tree is
+ * requested at once with Depth: infinity.  If the server refuses that, each
+ * collection is listed with Depth: 1 instead.</p>
+ *
+ * <p>Requests are sent through the Archiver's StreamingDownloader so they
+ * use the Sakai session cookies.</p>
+ */
+public class WebDavLister {
+
+    public static final String DAV_NAMESPACE = "DAV:";
+    /** The properties requested for each resource */
+    public static final String PROPFIND_BODY =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+            "<D:propfind xmlns:D=\"DAV:\"><D:prop>" +
+            "<D:resourcetype/><D:getcontentlength/>" +
+            "<D:getetag/><D:getlastmodified/>" +
+            "</D:prop></D:propfind>";
+
+    private StreamingDownloader downloader;
+    private WebClient webClient;
+
+    /**
+     * A file or collection in the listing.
+     */
+    public static class Entry {
+        private URI uri;
+        private boolean collection;
+        private long size = -1;
+        private String etag;
+        private String lastModified;
+
+        public URI getUri() {
+            return uri;
+        }
+        public boolean isCollection() {
+            return collection;
+        }
+        public long getSize() {
+            return size;
+        }
+        public String getEtag() {
+            return etag;
+        }
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * PROPFIND HTTP method.
+     */
+    private static class HttpPropfind extends HttpEntityEnclosingRequestBase {
+        public HttpPropfind( URI uri, String depth ) {
+            setURI(uri);
+            setHeader("Depth", depth);
+            setEntity(new StringEntity(PROPFIND_BODY,
+                    ContentType.create("application/xml", "UTF-8")));
+        }
+        @Override
+        public String getMethod() {
+            return "PROPFIND";
+        }
+    }
+
+    /**
+     * Create a lister.
+     *
+     * @param downloader Sends the requests.
+     * @param webClient The WebClient whose cookies are sent.
+     */
+    public WebDavLister( StreamingDownloader downloader, WebClient webClient ) {
+        this.downloader = downloader;
+        this.webClient = webClient;
+    }
+    /**
+     * List all the files (not collections) under a collection.
+     *
+     * @param collection The collection URL (should end with /)
+     * @return The files.
+     * @throws IOException If the collection could not be listed.
+     */
+    public List<Entry> listFiles( URI collection ) throws IOException {
+        List<Entry> files = new ArrayList<Entry>();
+        List<Entry> entries;
+        try {
+            entries = propfind(collection, "infinity");
+        } catch ( IOException e ) {
+            entries = null;
+        }
+        if ( entries != null ) {
+            for ( Entry entry: entries ) {
+                if ( ! entry.isCollection() ) {
+                    files.add(entry);
+                }
+            }
+            return files;
+        }
+
+        // Walk the tree one collection at a time.
+        Set<String> listed = new HashSet<String>();
+        LinkedList<URI> pending = new LinkedList<URI>();
+        pending.add(collection);
+        while ( ! pending.isEmpty() ) {
+            URI uri = pending.removeFirst();
+            if ( ! listed.add(uri.getRawPath()) ) {
+                continue;
+            }
+            for ( Entry entry: propfind(uri, "1") ) {
+                if ( entry.isCollection() ) {
+                    if ( ! listed.contains(entry.getUri().getRawPath()) ) {
+                        pending.add(entry.getUri());
+                    }
+                }
+                else {
+                    files.add(entry);
+                }
+            }
+        }
+        return files;
+    }
+    /**
+     * Send a PROPFIND request.
+     *
+     * @param uri
+     * @param depth The Depth header value.
+     * @return The resources in the response.
+     * @throws IOException If the request failed or was refused.
+     */
+    protected List<Entry> propfind( URI uri, String depth ) throws IOException {
+        CloseableHttpResponse response =
+                downloader.execute(webClient, new HttpPropfind(uri, depth));
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if ( status != 207 || entity == null ) {
+                EntityUtils.consumeQuietly(entity);
+                throw new IOException("PROPFIND " + uri + " returned " +
+                        response.getStatusLine());
+            }
+            InputStream in = entity.getContent();
+            try {
+                return parse(uri, in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+    /**
+     * Parse a multistatus response.
+     *
+     * @param base The request URI, used to resolve the hrefs.
+     * @param in
+     * @return The resources in the response.
+     * @throws IOException
+     */
+    public static List<Entry> parse( URI base, InputStream in ) throws IOException {
+        Document doc;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            doc = builder.parse(in);
+        } catch ( IOException e ) {
+            throw e;
+        } catch ( Exception e ) {
+            throw new IOException("Invalid PROPFIND response: " + e.getMessage());
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        NodeList responses = doc.getElementsByTagNameNS(DAV_NAMESPACE, "response");
+        for ( int i = 0; i < responses.getLength(); i++ ) {
+            Element element = (Element) responses.item(i);
+            String href = getText(element, "href");
+            if ( href == null ) {
+                continue;
+            }
+            Entry entry = new Entry();
+            entry.uri = base.resolve(href.trim());
+            entry.collection =
+                element.getElementsByTagNameNS(DAV_NAMESPACE, "collection").getLength() > 0;
+            String length = getText(element, "getcontentlength");
+            if ( length != null ) {
+                try {
+                    entry.size = Long.parseLong(length.trim());
+                } catch ( NumberFormatException e ) {
+                    // Leave unknown.
+                }
+            }
+            entry.etag = getText(element, "getetag");
+            entry.lastModified = getText(element, "getlastmodified");
+            entries.add(entry);
+        }
+        return entries;
+    }
+    private static String getText( Element element, String name ) {
+        NodeList nodes = element.getElementsByTagNameNS(DAV_NAMESPACE, name);
+        if ( nodes.getLength() == 0 ) {
+            return null;
+        }
+        return nodes.item(0).getTextContent();
+    }
+}
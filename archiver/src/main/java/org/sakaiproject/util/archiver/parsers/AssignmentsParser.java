@@ -3,16 +3,24 @@ package org.sakaiproject.util.archiver.parsers;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.sakaiproject.util.archiver.Archiver;
-import org.sakaiproject.util.archiver.PageSaver;
+import org.sakaiproject.util.archiver.LinkRewriter;
 import org.sakaiproject.util.archiver.ParsingUtils;
 import org.sakaiproject.util.archiver.ToolParser;
 
+import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.gargoylesoftware.htmlunit.html.HtmlImage;
@@ -61,7 +69,7 @@ public class AssignmentsParser extends ToolParser {
         // Get the main iframe
         List<?> elements = ParsingUtils.findElementWithCssClass(page, "iframe", "portletMainIframe");
         String path = ((HtmlInlineFrame) elements.get(0)).getSrcAttribute();
-        HtmlPage assignments = getArchiver().getWebClient().getPage(path);
+        HtmlPage assignments = getWebClient().getPage(path);
 
         Map<String,String> subPages = parseAssignmentPages(assignments);
 
@@ -168,6 +176,7 @@ public class AssignmentsParser extends ToolParser {
     public Map<String,String> parseStudentSubmissions( HtmlPage page )
             throws Exception {
         Map<String,String> subPages = new HashMap<String,String>();
+        List<SubPage> toSave = new ArrayList<SubPage>();
 
         List<HtmlAnchor> links = page.getAnchors();
         for( HtmlAnchor link: links ) {
@@ -187,20 +196,13 @@ public class AssignmentsParser extends ToolParser {
                 String localPath = getSubdirectory() + FilenameUtils.getName(id);
                 subPages.put(localPath, href);
 
-                if ( ! getArchiver().getSavedPages().contains(localPath)) {
-                    HtmlPage submissionPage = link.click();
-                    submissionPage = expandPage( submissionPage );
-
-                    msg("Saving submission page: " + localPath + "(" +
-                            link.asText() + ")", Archiver.NORMAL);
-                    setPageSaveStringType("submission");
-                    savePage(submissionPage, localPath);
-                    getArchiver().getSavedPages().add(localPath);
-
-                    resetTool();
+                URL url = page.getFullyQualifiedUrl(href);
+                if ( getArchiver().getSavedPages().claim(url, localPath)) {
+                    toSave.add(new SubPage(url, id, localPath, link.asText()));
                 }
             }
         }
+        saveSubPages(toSave, true);
         return subPages;
     }
 
@@ -210,27 +212,16 @@ public class AssignmentsParser extends ToolParser {
         Map<String,String> urlMap = getPageUrlUpdates().get(saveType);
         String newHtml = html;
 
-        if  ( MAIN_PAGE.equals(saveType) ) {
-            // Update links
+        if  ( MAIN_PAGE.equals(saveType) || BY_STUDENT.equals(saveType) ) {
+            // Update links (matches both & and &amp; forms)
+            LinkRewriter rewriter = new LinkRewriter();
             for( String localPath: urlMap.keySet() ) {
-                String href = urlMap.get(localPath).replaceAll("[?]","[?]").replaceAll("&","&amp;");
                 // Don't need full path.
-                localPath = FilenameUtils.getName(localPath);
-                String pattern = PageSaver.HREF_REGEX + href + "\"";
-                String replace = "class=\"offline-link\" href=\"" + localPath + "\"";
-                newHtml = newHtml.replaceAll(pattern, replace);
-            }
-        }
-        if ( BY_STUDENT.equals(saveType)) {
-            // Update links
-            for( String localPath: urlMap.keySet() ) {
-                String href = urlMap.get(localPath).replaceAll("[?]","[?]").replaceAll("&","(&amp;|&)");
-                // Don't need full path.
-                localPath = FilenameUtils.getName(localPath);
-                String pattern = PageSaver.HREF_REGEX + href + "\"";
-                String replace = "class=\"offline-link\" href=\"" + localPath + "\"";
-                newHtml = newHtml.replaceAll(pattern, replace);
+                rewriter.addReplacement("href", urlMap.get(localPath),
+                        "class=\"offline-link\" href=\"" +
+                        FilenameUtils.getName(localPath) + "\"");
             }
+            newHtml = rewriter.rewrite(newHtml);
         }
 
         // Update tool navigation links
@@ -294,6 +285,7 @@ public class AssignmentsParser extends ToolParser {
 	    msg("Parsing Assignments - Assignment List view", Archiver.DEBUG);
 //TODO: handle paging (>200)
         Map<String,String> subPages = new HashMap<String,String>();
+        List<SubPage> toSave = new ArrayList<SubPage>();
 
         List<HtmlAnchor> links = assignments.getAnchors();
         for( HtmlAnchor link: links ) {
@@ -315,22 +307,169 @@ public class AssignmentsParser extends ToolParser {
                         FilenameUtils.getName(id);
                 subPages.put(localPath, href);
 
-                if ( ! getArchiver().getSavedPages().contains(localPath)) {
-                    HtmlPage assignmentPage = link.click();
-                    assignmentPage = openStudentView( assignmentPage );
-
-                    msg("Saving assignment page: " + localPath + "(" +
-                            link.asText() + ")", Archiver.NORMAL);
-                    setPageSaveStringType("assignment");
-                    savePage(assignmentPage, localPath);
-                    getArchiver().getSavedPages().add(localPath);
-
-                    resetTool();
+                URL url = assignments.getFullyQualifiedUrl(href);
+                if ( getArchiver().getSavedPages().claim(url, localPath)) {
+                    toSave.add(new SubPage(url, id, localPath, link.asText()));
                 }
             }
         }
+        saveSubPages(toSave, false);
 	    return subPages;
 	}
+	/**
+	 * Load, expand and save assignment or submission pages.  If the
+	 * assignments.threads option is more than 1, the pages are split between
+	 * that many sessions: the parser's own client and clients from the
+	 * Archiver's WebClient pool (a share that can't get one is loaded
+	 * afterwards).  The sessions share the Sakai session and so the tool's
+	 * state: workers don't reset the tool (that would reset it for the
+	 * others too), and a page that fails isSubPage (or fails to load) is
+	 * loaded again afterwards, one at a time, with the parser's client.
+	 *
+	 * @param pages The pages to save (already claimed in the saved pages index).
+	 * @param submissions True for submission pages, false for assignment pages.
+	 * @throws Exception
+	 */
+	public void saveSubPages( List<SubPage> pages, final boolean submissions )
+	        throws Exception {
+	    int threads = Integer.parseInt(getArchiver().getOption(
+	            Archiver.ASSIGNMENTS_THREADS));
+	    if ( threads <= 1 || pages.size() <= 1 ||
+	         getArchiver().getWebClientPool() == null ) {
+	        for ( SubPage subPage: pages ) {
+	            saveSubPage(getWebClient(), subPage, submissions, false);
+	        }
+	        return;
+	    }
+	    int sessions = Math.min(threads, pages.size());
+	    msg("Loading " + pages.size() + (submissions ? " submission" : " assignment") +
+	            " pages with " + sessions + " sessions.", Archiver.NORMAL);
+	    final List<SubPage> retries =
+	            Collections.synchronizedList(new ArrayList<SubPage>());
+	    ExecutorService executor = Executors.newFixedThreadPool(sessions);
+	    List<Future<Object>> results = new ArrayList<Future<Object>>();
+	    try {
+	        for ( int i = 0; i < sessions; i++ ) {
+	            final boolean ownClient = i == 0;
+	            final List<SubPage> share = new ArrayList<SubPage>();
+	            for ( int j = i; j < pages.size(); j += sessions ) {
+	                share.add(pages.get(j));
+	            }
+	            results.add(executor.submit(new Callable<Object>() {
+	                public Object call() throws Exception {
+	                    WebClient client = ownClient ? getWebClient() : checkoutSubSession();
+	                    if ( client == null ) {
+	                        msg("No free session for " + share.size() +
+	                                " pages, will load them afterwards.", Archiver.DEBUG);
+	                        retries.addAll(share);
+	                        return null;
+	                    }
+	                    try {
+	                        for ( SubPage subPage: share ) {
+	                            try {
+	                                if ( ! saveSubPage(client, subPage, submissions, true) ) {
+	                                    retries.add(subPage);
+	                                }
+	                            } catch ( Exception e ) {
+	                                retries.add(subPage);
+	                            }
+	                        }
+	                    } finally {
+	                        if ( ! ownClient ) {
+	                            releaseSubSession(client);
+	                        }
+	                    }
+	                    return null;
+	                }
+	            }));
+	        }
+	        for ( Future<Object> result: results ) {
+	            result.get();
+	        }
+	    } finally {
+	        executor.shutdown();
+	    }
+	    resetTool();
+	    if ( ! retries.isEmpty() ) {
+	        msg("Reloading " + retries.size() + " pages one at a time.", Archiver.NORMAL);
+	        for ( SubPage subPage: retries ) {
+	            saveSubPage(getWebClient(), subPage, submissions, false);
+	        }
+	    }
+	}
+	/**
+	 * Load, expand and save one assignment or submission page.
+	 *
+	 * @param client The WebClient to use.
+	 * @param subPage
+	 * @param submissions True for a submission page.
+	 * @param shared True if other threads are using the same Sakai session.
+	 *        The page is then only saved if it passes isSubPage, and the
+	 *        tool is not reset afterwards.
+	 * @return False if the page was not valid and was not saved.
+	 * @throws Exception
+	 */
+	protected boolean saveSubPage( WebClient client, SubPage subPage,
+	                               boolean submissions, boolean shared )
+	        throws Exception {
+	    HtmlPage page = client.getPage(subPage.url);
+	    page = submissions ? expandPage(page) : openStudentView(page);
+	    if ( shared && ! isSubPage(page, subPage.id) ) {
+	        msg("Page for " + subPage.label + " did not match, will retry.",
+	                Archiver.WARNING);
+	        return false;
+	    }
+	    msg("Saving " + (submissions ? "submission" : "assignment") + " page: " +
+	            subPage.localPath + "(" + subPage.label + ")", Archiver.NORMAL);
+	    setPageSaveStringType(submissions ? "submission" : "assignment");
+	    savePage(page, subPage.localPath);
+
+	    if ( ! shared ) {
+	        resetTool(client);
+	    }
+	    return true;
+	}
+	/**
+	 * Check that a loaded and expanded page is an assignment or submission
+	 * page: not an assignment list (which links to every id), with no
+	 * visible expand toggles left, and containing its id.
+	 *
+	 * @param page
+	 * @param id The assignment or submission id.
+	 * @return True if the page can be saved as the entry's page.
+	 */
+	public static boolean isSubPage( HtmlPage page, String id ) {
+	    if ( page.getElementById("view") != null ) {
+	        return false;  // The list views' view selector.
+	    }
+	    for ( HtmlAnchor link: page.getAnchors() ) {
+	        if ( link.getHrefAttribute().contains("sakai_action=doView_assignment") ) {
+	            return false;
+	        }
+	    }
+	    for ( Object img: page.getByXPath("//img[contains(@src,'expand.gif')]") ) {
+	        if ( ! ((HtmlImage) img).getAttribute("style").contains("none") ) {
+	            return false;
+	        }
+	    }
+	    return page.getWebResponse().getContentAsString().contains(id);
+	}
+	/**
+	 * An assignment or submission page to be saved.
+	 */
+	protected static class SubPage {
+	    private URL url;
+	    private String id;
+	    private String localPath;
+	    private String label;
+
+	    public SubPage( URL url, String id, String localPath, String label ) {
+	        this.url = url;
+	        this.id = id;
+	        this.localPath = localPath;
+	        this.label = label;
+	    }
+	}
 	/**
 	 * Find the student view link, press it, and return the new page.
 	 *
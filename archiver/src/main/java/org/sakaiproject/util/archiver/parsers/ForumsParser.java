@@ -0,0 +1,384 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.NavigationReplayer;
+import org.sakaiproject.util.archiver.ParsingUtils;
+import org.sakaiproject.util.archiver.ToolParser;
+
+import com.gargoylesoftware.htmlunit.ElementNotFoundException;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.html.HtmlTable;
+
+public class ForumsParser extends ToolParser {
+
+    public static final int MAIN_PAGE = 1;
+    public static final int TOPIC_PAGE = 2;
+    public static final int THREAD_PAGE = 3;
+    public static final int FLAT_PAGE = 4;
+
+	public static final String TOOL_NAME = "forums";
+
+	/**
+	 * Component id of the command link to a topic's flat (all messages)
+	 * view.  JSF renders it as the last part of the link's client id, e.g.
+	 * msgForum:flatView.
+	 */
+	public static final String FLAT_VIEW_ID = "flatView";
+
+	/** Matches the messageId assignment in a message link's onclick */
+	private static final Pattern MESSAGE_LINK =
+	        Pattern.compile("\\[\\s*'messageId'\\s*\\]\\s*\\.value\\s*=\\s*'[^']*'");
+
+	/** Matches an a tag whose onclick opens a message; group 1 is the id */
+	private static final Pattern MESSAGE_ANCHOR =
+	        Pattern.compile("[<]a\\s[^>]*\\['messageId'\\]\\.value\\s*=\\s*'([^']*)'[^>]*[>]");
+
+	/** Helper string for searching forum onclick information */
+    public static final String onClickPrefix =
+            ".*document\\.forms\\[\\'msgForum\\'\\]\\[\\'";
+
+
+	public ForumsParser() {
+		super();
+	}
+
+	public ForumsParser(String mainURL) {
+		super(mainURL);
+	}
+	@Override
+	public void initialize() {
+		setSubdirectory(getToolName());
+	}
+	@Override
+	public void parse() throws Exception {
+		super.parse();
+
+        setToolPageName(FilenameUtils.getName(new URI(getToolURL()).getPath()));
+        HtmlPage mainPage = loadToolMainPage();
+
+        parseMainPage(mainPage);
+
+        // Forums maintains state on server, need to reset to get back to main page.
+        mainPage = resetTool();
+        // Overwrite the default frame with the updated version.
+        String name = getSubdirectory() + getToolPageName();
+        msg("Updating main roster iframe: " + name + "(" +
+                mainPage.getTitleText()+")", Archiver.NORMAL);
+        savePage(MAIN_PAGE, mainPage, name);
+	}
+	/**
+	 * Parse the List of Forums page
+	 *
+	 * @param page
+	 * @throws Exception
+	 */
+	public void parseMainPage( HtmlPage page ) throws Exception {
+
+	    // Get all topic link ids.
+	    HtmlTable table = page.getHtmlElementById("msgForum:forums");
+	    List<HtmlAnchor> anchors = table.getHtmlElementsByTagName("a");
+	    Map<String,String> urlChanges = new HashMap<String,String>();
+	    List<String> topicIds = new ArrayList<String>();
+	    for( HtmlAnchor anchor: anchors ) {
+	        String id = anchor.getId();
+	        if ( id != null &&
+	             id.matches("msgForum[:]forums[:]\\d+[:]topics[:]\\d+[:]topic_title")) {
+	            topicIds.add(id);
+	        }
+	    }
+
+	    // Load each topic page and process it.
+	    for( String id: topicIds ) {
+	        page = resetTool();  // Tool main
+	        HtmlAnchor anchor = page.getHtmlElementById(id);
+            String onClick = anchor.getOnClickAttribute();
+            //document.forms['msgForum']['forumId'].value='5728';
+            String forumId = onClick.replaceAll(onClickPrefix +
+                    "forumId\\'\\]\\.value\\=\\'(\\d+)\\'.*", "$1");
+            //document.forms['msgForum']['topicId'].value='22569';
+            String topicId = onClick.replaceAll(onClickPrefix +
+                    "topicId\\'\\]\\.value\\=\\'(\\d+)\\'.*", "$1");
+
+            page = anchor.click(); // Topic main
+            parseThread( page, id, forumId, topicId );
+
+            String name = getToolPageName() + "-forum-" + forumId +
+                    "-topic-" + topicId;
+            savePage(TOPIC_PAGE, page, getSubdirectory() + name);
+            urlChanges.put(id, name);
+	    }
+	    getPageUrlUpdates().put("MAIN_PAGE", urlChanges);
+	}
+
+	public void parseThread( HtmlPage page, String topicLinkId,
+	                         String forumId, String topicId ) throws Exception {
+        // Get all thread link ids.
+        HtmlTable table;
+        try {
+            table = page.getHtmlElementById("msgForum:messagesInHierDataTable");
+        } catch ( ElementNotFoundException e ) {
+            return; // No messages found
+        }
+
+        List<HtmlAnchor> anchors = table.getHtmlElementsByTagName("a");
+        Map<String,String> urlChanges = new HashMap<String,String>();
+        List<Integer> threadIds = new ArrayList<Integer>();
+        List<String> threadOnClicks = new ArrayList<String>();
+        int index = 0;
+        for( HtmlAnchor anchor: anchors ) {
+            String onClick = anchor.getOnClickAttribute();
+            //document.forms['msgForum']['messageId'].value='60772';
+            if ( onClick != null &&
+                 onClick.matches(".*document\\.forms\\[\\'msgForum\\'\\]\\[\\'messageId\\'\\]\\.value\\=\\'.*")) {
+                threadIds.add(new Integer(index));
+                threadOnClicks.add(onClick);
+            }
+            index++;
+        }
+
+        if ( ! threadIds.isEmpty() &&
+             Boolean.parseBoolean(getArchiver().getOption(Archiver.FORUMS_FLAT_VIEW)) &&
+             parseFlatView(page, threadOnClicks, forumId, topicId) ) {
+            return;
+        }
+
+        // Load each thread page and process it.  The first thread is loaded
+        // by clicking, the rest by replaying the recorded thread request.
+        NavigationReplayer replayer = new NavigationReplayer(getWebClient());
+        Iterator<String> onClickItr = threadOnClicks.iterator();
+        for( Integer anchorIndex: threadIds ) {
+            String onClick = onClickItr.next();
+            //document.forms['msgForum']['messageId'].value='60772';
+            final String threadId = onClick.replaceAll(onClickPrefix +
+                    "messageId\\'\\]\\.value\\=\\'(\\d+)\\'.*", "$1");
+
+            page = replayer.replay(onClick, new NavigationReplayer.Validator() {
+                public boolean isValid( HtmlPage threadPage ) {
+                    return isThreadPage(threadPage, threadId);
+                }
+            });
+            if ( page == null ) {
+                page = resetTool();  // Main page
+                HtmlAnchor anchor = page.getHtmlElementById(topicLinkId);
+                page = anchor.click();  // Topic page
+
+                table = page.getHtmlElementById("msgForum:messagesInHierDataTable");
+                anchors = table.getHtmlElementsByTagName("a");
+                anchor = anchors.get(anchorIndex.intValue());
+
+                page = replayer.record(anchor);  // Thread page
+            }
+
+            String name = getToolPageName() + "-forum-" + forumId +
+                    "-topic-" + topicId + "-thread-" + threadId;
+            savePage(THREAD_PAGE, page, getSubdirectory() + name);
+            urlChanges.put(threadId, name);
+        }
+        msg(replayer.getStats(), Archiver.DEBUG);
+        getPageUrlUpdates().put("TOPIC_PAGE", urlChanges);
+
+	}
+
+    /**
+     * Check that a page is the thread view for a message.  The topic page
+     * also has the msgForum form and every message id (in its links'
+     * onclicks), so it is rejected by its message table and the id has to
+     * show up somewhere other than a link to the message.
+     *
+     * @param page
+     * @param messageId
+     * @return True if the page is the message's thread page.
+     */
+    public static boolean isThreadPage( HtmlPage page, String messageId ) {
+        return isFlatView(page, Collections.singletonList(messageId));
+    }
+    /**
+     * Check that a page is a topic's flat view: not the topic page (see
+     * isThreadPage) and with every thread's message, not just links to it.
+     *
+     * @param page
+     * @param threadIds The topic's thread (first message) ids.
+     * @return True if the page has all the threads.
+     */
+    public static boolean isFlatView( HtmlPage page, Collection<String> threadIds ) {
+        if ( page.getElementById("msgForum") == null ||
+             page.getElementById("msgForum:messagesInHierDataTable") != null ) {
+            return false;
+        }
+        String xml = MESSAGE_LINK.matcher(page.asXml()).replaceAll("");
+        for ( String threadId: threadIds ) {
+            if ( ! xml.contains(threadId) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Save all of a topic's messages from the topic's flat (display all
+     * messages) view with one request, instead of loading each thread.
+     * Thread links on the topic page are changed to point to the thread's
+     * first message in the saved view.
+     *
+     * @param page The topic page.
+     * @param threadOnClicks The onclick values of the topic's thread links.
+     * @param forumId
+     * @param topicId
+     * @return False if there is no flat view (or it is missing threads) so
+     *         threads should be loaded one at a time.
+     * @throws Exception
+     */
+    public boolean parseFlatView( HtmlPage page, List<String> threadOnClicks,
+                                  String forumId, String topicId ) throws Exception {
+        HtmlAnchor flatLink = findFlatViewLink(page);
+        if ( flatLink == null ) {
+            msg("No flat view found for topic " + topicId +
+                    ", loading threads one at a time.", Archiver.DEBUG);
+            return false;
+        }
+        Page flatPage;
+        try {
+            flatPage = flatLink.click();
+        } catch ( Exception e ) {
+            msg("Could not load flat view for topic " + topicId, Archiver.WARNING);
+            return false;
+        }
+        String name = getToolPageName() + "-forum-" + forumId +
+                "-topic-" + topicId + "-all";
+        Map<String,String> urlChanges = new HashMap<String,String>();
+        Map<String,String> threadAnchors = new HashMap<String,String>();
+        for ( String onClick: threadOnClicks ) {
+            String threadId = onClick.replaceAll(onClickPrefix +
+                    "messageId\\'\\]\\.value\\=\\'(\\d+)\\'.*", "$1");
+            urlChanges.put(threadId, name + "#thread-" + threadId);
+            threadAnchors.put(threadId, "thread-" + threadId);
+        }
+        if ( ! (flatPage instanceof HtmlPage) || flatPage == page ||
+             ! isFlatView((HtmlPage) flatPage, threadAnchors.keySet()) ) {
+            msg("Flat view for topic " + topicId + " did not have all its threads," +
+                    " loading threads one at a time.", Archiver.WARNING);
+            return false;
+        }
+        getPageUrlUpdates().put("FLAT_PAGE", threadAnchors);
+        savePage(FLAT_PAGE, (HtmlPage) flatPage, getSubdirectory() + name);
+        getPageUrlUpdates().put("TOPIC_PAGE", urlChanges);
+        return true;
+    }
+    /**
+     * Find the link to a topic's flat view (all messages on one page) by its
+     * component id, since the link text depends on the locale.  Only links
+     * that go to the server are used, not ones that just expand the thread
+     * tree in the browser.
+     *
+     * @param page The topic page.
+     * @return The link or null if there isn't one.
+     */
+    protected HtmlAnchor findFlatViewLink( HtmlPage page ) {
+        for ( HtmlAnchor anchor: page.getAnchors() ) {
+            String id = anchor.getId() == null ? "" : anchor.getId();
+            if ( ! id.equals(FLAT_VIEW_ID) && ! id.endsWith(":" + FLAT_VIEW_ID) ) {
+                continue;
+            }
+            String onClick = anchor.getOnClickAttribute();
+            String href = anchor.getHrefAttribute().trim();
+            if ( onClick.contains("submit(") || onClick.contains("jsfcljs") ||
+                 ( ! href.equals("") && ! href.startsWith("#") &&
+                   ! href.startsWith("javascript:") ) ) {
+                return anchor;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String modifySavedHtml(HtmlPage page, String html) {
+        String newHtml = html;
+        Map<String,String> urlChanges;
+        switch ( getPageSaveType() ) {
+            case MAIN_PAGE:
+                urlChanges = getPageUrlUpdates().get("MAIN_PAGE");
+                newHtml = ParsingUtils.replaceMatchingAnchors( newHtml, urlChanges,
+                        "[<]a\\s+id\\s*=\\s*[\"']\\s*", "\\s*[\"'][^>]*[>]");
+                break;
+            case TOPIC_PAGE:
+                urlChanges = getPageUrlUpdates().get("TOPIC_PAGE");
+                if (urlChanges != null ) {
+                    newHtml = ParsingUtils.replaceMatchingAnchors(newHtml, urlChanges,
+                        "[<]a\\s*[^>]*" + onClickPrefix +
+                        "messageId\\'\\]\\.value\\=\\'",
+                        "\\'[^>]*[>]");
+                }
+                break;
+            case FLAT_PAGE:
+                newHtml = addThreadTargets(newHtml, getPageUrlUpdates().get("FLAT_PAGE"));
+                break;
+        }
+        return newHtml;
+    }
+
+    /**
+     * Add a named target before each thread's first message link in one
+     * pass over the page.
+     *
+     * @param html The flat view page.
+     * @param threadAnchors Map of thread (message) id to target name.
+     * @return The page with the targets added.
+     */
+    public static String addThreadTargets( String html, Map<String,String> threadAnchors ) {
+        if ( threadAnchors == null || threadAnchors.isEmpty() ) {
+            return html;
+        }
+        Set<String> added = new HashSet<String>();
+        Matcher m = MESSAGE_ANCHOR.matcher(html);
+        StringBuilder result = new StringBuilder(html.length() + threadAnchors.size() * 32);
+        int last = 0;
+        while ( m.find() ) {
+            String target = threadAnchors.get(m.group(1));
+            if ( target == null || ! added.add(m.group(1)) ) {
+                continue;
+            }
+            result.append(html, last, m.start())
+                  .append("<a name='").append(target).append("'></a>");
+            last = m.start();
+        }
+        result.append(html, last, html.length());
+        return result.toString();
+    }
+
+    @Override
+    public String addJavascript() throws Exception {
+        String js = "";
+        String script;
+        switch ( getPageSaveType() ) {
+            case MAIN_PAGE:
+            case TOPIC_PAGE:
+            case FLAT_PAGE:
+                script = "\\$(document).ready(function() { "
+                        + "\\$('DIV.toggle').css('display', '');});";
+                js = ParsingUtils.addInlineJavaScript(script);
+                break;
+        }
+        return js;
+    }
+
+	@Override
+	public String getToolName() {
+		return TOOL_NAME;
+	}
+
+}
@@ -0,0 +1,368 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FilenameUtils;
+import org.sakaiproject.util.archiver.ArchiveJournal;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.ParsingUtils;
+import org.sakaiproject.util.archiver.ToolParser;
+
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlOption;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.html.HtmlSelect;
+import com.gargoylesoftware.htmlunit.html.HtmlSubmitInput;
+
+public class GradeBookParser extends ToolParser {
+
+	public static final String TOOL_NAME = "gradebook";
+
+	public static final int MAIN_PAGE = 1;
+	public static final int ALL_GRADES = 2;
+    public static final int COURSE_GRADES = 3;
+
+    /** Id of the Export CSV button on the All Grades and Course Grades pages */
+    public static final String CSV_EXPORT_ID = "gbForm:exportCsv";
+
+	public GradeBookParser() {
+		super();
+	}
+
+	public GradeBookParser(String mainURL) {
+		super(mainURL);
+	}
+	@Override
+	public void initialize() {
+		setSubdirectory(getToolName());
+	}
+    @Override
+    public void parse() throws Exception {
+        super.parse();
+
+        setToolPageName(FilenameUtils.getName(new URI(getToolURL()).getPath()));
+        HtmlPage mainPage = loadToolMainPage();
+
+        Map<String,String> urlChanges = new HashMap<String,String>();
+        urlChanges.put("gbForm:_idJsp2", getToolPageName());
+        urlChanges.put("gbForm:_idJsp6", getToolPageName() + "-allgrades");
+        urlChanges.put("gbForm:_idJsp10", getToolPageName() + "-coursegrades");
+        getPageUrlUpdates().put("MAIN_PAGE", urlChanges);
+
+        parseAllGrades(mainPage);
+
+        mainPage = loadToolMainPage();
+        parseCourseGrades(mainPage);
+
+        mainPage = loadToolMainPage();
+
+        // Overwrite the default frame with the updated version.
+        String name = getSubdirectory() + getToolPageName();
+
+        msg("Updating main roster iframe: " + name + "(" +
+                mainPage.getTitleText()+")", Archiver.NORMAL);
+        savePage(MAIN_PAGE, mainPage, name);
+    }
+    /**
+     * Parse the All Grades page
+     *
+     * @param page
+     * @throws Exception
+     */
+    public void parseAllGrades(HtmlPage page) throws Exception  {
+
+        HtmlAnchor anchor = page.getHtmlElementById("gbForm:_idJsp6");
+        page = anchor.click(); // All grades page
+
+        String name = getSubdirectory() + getToolPageName() + "-allgrades";
+        if ( isExportOnly() &&
+             exportGrades(page, name, "gradebook-" + getArchiver().getSite() + ".csv",
+                     "All Grades") ) {
+            parseAllGradesExcel( page );
+            return;
+        }
+
+        // Make sure show all is selected
+        HtmlSelect select = page.getHtmlElementById("gbForm:pager_pageSize");
+        HtmlOption option = select.getOptionByValue("0");
+        page = select.setSelectedAttribute(option, true);
+
+        parseAllGradesExcel( page );
+
+        savePage(ALL_GRADES, page, name);
+    }
+    /**
+     * Parse the Course Grades page
+     *
+     * @param page
+     * @throws Exception
+     */
+    public void parseCourseGrades(HtmlPage page) throws Exception  {
+
+        HtmlAnchor anchor = page.getHtmlElementById("gbForm:_idJsp10");
+        page = anchor.click();
+
+        String name = getSubdirectory() + getToolPageName() + "-coursegrades";
+        if ( isExportOnly() &&
+             exportGrades(page, name,
+                     "gradebook-" + getArchiver().getSite() + "-coursegrades.csv",
+                     "Course Grades") ) {
+            return;
+        }
+
+        // Make sure show all is selected
+        HtmlSelect select = page.getHtmlElementById("gbForm:pager_pageSize");
+        HtmlOption option = select.getOptionByValue("0");
+        page = select.setSelectedAttribute(option, true);
+
+        savePage(ALL_GRADES, page, name);
+    }
+    /**
+     * Get the All Grades Excel file
+     *
+     * @param page
+     * @throws Exception
+     */
+    public void parseAllGradesExcel( HtmlPage page ) throws Exception {
+
+        final String excelId = "gbForm:exportExcel";
+
+        Map<String,String> urlChanges = new HashMap<String,String>();
+
+        HtmlSubmitInput excelSubmit = page.getHtmlElementById(excelId);
+
+        String filename = "gradebook-" + getArchiver().getSite() + ".xls";
+        String localPath = getSubdirectory() + filename;
+
+        File file = new File(getArchiver().getBasePath() + localPath);
+        file.getParentFile().mkdirs();
+        msg("Saving All Grades Excel file (please wait).", Archiver.NORMAL);
+        try {
+            WebRequest request =
+                    excelSubmit.getEnclosingForm().getWebRequest(excelSubmit);
+            long size = getArchiver().getStreamingDownloader().download(
+                    getWebClient(), request, file);
+            msg("File size: " + size, Archiver.NORMAL);
+        } catch ( Exception e ) {
+            localPath = "fileNotFound.htm?file=" + filename;
+            msg("Could not download Gradebook Excel file.",
+                Archiver.ERROR);
+        }
+        urlChanges.put(excelId, filename);
+        getPageUrlUpdates().put("ALL_GRADES", urlChanges);
+    }
+
+    /**
+     * Save a grades page from the gradebook's CSV export instead of showing
+     * all the students in the JSF table.  The CSV is streamed to disk and
+     * turned into a plain HTML table one row at a time.
+     *
+     * @param page The grades page (with the default page size).
+     * @param name The path to save the HTML table in.
+     * @param filename The CSV file name.
+     * @param title The page title.
+     * @return False if there was no CSV export so the page should be saved
+     *         the normal way.
+     */
+    public boolean exportGrades( HtmlPage page, String name, String filename,
+                                 String title ) {
+        ArchiveJournal journal = getArchiver().getJournal();
+        if ( journal != null && journal.isPageComplete(name) ) {
+            msg("Skipping page saved in previous run: " + name, Archiver.NORMAL);
+            return true;
+        }
+        HtmlSubmitInput csvSubmit;
+        try {
+            csvSubmit = page.getHtmlElementById(CSV_EXPORT_ID);
+        } catch ( Exception e ) {
+            msg("No gradebook CSV export found, saving " + title + " page.",
+                    Archiver.WARNING);
+            return false;
+        }
+        File csv = new File(getArchiver().getBasePath() + getSubdirectory() + filename);
+        File html = new File(getArchiver().getBasePath() + name);
+        try {
+            WebRequest request = csvSubmit.getEnclosingForm().getWebRequest(csvSubmit);
+            long size = getArchiver().getStreamingDownloader().download(
+                    getWebClient(), request, csv);
+            msg("Saved " + title + " CSV export (" + size + " bytes).", Archiver.NORMAL);
+            int rows = writeCsvTable(csv, html, title, filename);
+            msg("Saved " + title + " table (" + rows + " rows) in " + name,
+                    Archiver.NORMAL);
+        } catch ( Exception e ) {
+            msg("Could not export " + title + ", saving the page instead: " +
+                    e.getMessage(), Archiver.WARNING);
+            return false;
+        }
+        if ( journal != null ) {
+            journal.pageComplete(name, page.getUrl());
+        }
+        return true;
+    }
+    /**
+     * Write a CSV file as an HTML table.  The first row is the table header.
+     *
+     * @param csv
+     * @param html
+     * @param title
+     * @param csvLink The link to the CSV file from the page.
+     * @return The number of rows.
+     * @throws IOException If the file is empty or could not be read.
+     */
+    protected int writeCsvTable( File csv, File html, String title, String csvLink )
+            throws IOException {
+        Reader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(csv), "UTF-8"));
+        int rows = 0;
+        try {
+            in.mark(1);
+            if ( in.read() != '\uFEFF' ) {
+                in.reset();  // No byte order mark.
+            }
+            List<String> row = readCsvRow(in);
+            if ( row == null ) {
+                throw new IOException("CSV export is empty");
+            }
+            html.getParentFile().mkdirs();
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(html), "US-ASCII"));
+            try {
+                out.write("<html>\r\n<head>\r\n<title>" +
+                        ParsingUtils.escapeHtml(title) + "</title>\r\n" +
+                        "<link href=\"../sakai-offline.css\" type=\"text/css\" " +
+                        "rel=\"stylesheet\" media=\"all\">\r\n" +
+                        "</head>\r\n<body>\r\n<div class=\"portletBody\">\r\n<h3>" +
+                        ParsingUtils.escapeHtml(title) + "</h3>\r\n" +
+                        "<p><a class='offline-link' href='" + csvLink +
+                        "'>Export CSV</a></p>\r\n" +
+                        "<table class=\"listHier lines nolines\">\r\n<tr>");
+                for ( String cell: row ) {
+                    out.write("<th>" + ParsingUtils.escapeHtml(cell) + "</th>");
+                }
+                out.write("</tr>\r\n");
+                while ( (row = readCsvRow(in)) != null ) {
+                    out.write("<tr>");
+                    for ( String cell: row ) {
+                        out.write("<td>" + ParsingUtils.escapeHtml(cell) + "</td>");
+                    }
+                    out.write("</tr>\r\n");
+                    rows++;
+                }
+                out.write("</table>\r\n</div>\r\n</body>\r\n</html>\r\n");
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return rows;
+    }
+    /**
+     * Read one CSV record (quoted fields may contain commas, quotes and line
+     * breaks).
+     *
+     * @param in
+     * @return The fields or null at the end of the file.
+     * @throws IOException
+     */
+    protected static List<String> readCsvRow( Reader in ) throws IOException {
+        int c = in.read();
+        while ( c == '\r' || c == '\n' ) {
+            c = in.read();
+        }
+        if ( c == -1 ) {
+            return null;
+        }
+        List<String> row = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while ( c != -1 ) {
+            if ( quoted ) {
+                if ( c == '"' ) {
+                    in.mark(1);
+                    int next = in.read();
+                    if ( next == '"' ) {
+                        field.append('"');
+                    }
+                    else {
+                        quoted = false;
+                        in.reset();
+                    }
+                }
+                else {
+                    field.append((char) c);
+                }
+            }
+            else if ( c == '"' ) {
+                quoted = true;
+            }
+            else if ( c == ',' ) {
+                row.add(field.toString());
+                field.setLength(0);
+            }
+            else if ( c == '\r' || c == '\n' ) {
+                break;
+            }
+            else {
+                field.append((char) c);
+            }
+            c = in.read();
+        }
+        row.add(field.toString());
+        return row;
+    }
+    public boolean isExportOnly() {
+        return Boolean.parseBoolean(
+                getArchiver().getOption(Archiver.GRADEBOOK_EXPORT_ONLY));
+    }
+
+    @Override
+    public String modifySavedHtml(HtmlPage page, String html) {
+        String newHtml = html;
+        Map<String,String> urlChanges = getPageUrlUpdates().get("MAIN_PAGE");
+        switch ( getPageSaveType()) {
+            case MAIN_PAGE:
+            case COURSE_GRADES:
+                newHtml =
+                    ParsingUtils.replaceMatchingAnchorsById(newHtml, urlChanges);
+                break;
+            case ALL_GRADES:
+                newHtml =
+                    ParsingUtils.replaceMatchingAnchorsById(newHtml, urlChanges);
+
+                // Should only be one id.
+                urlChanges = getPageUrlUpdates().get("ALL_GRADES");
+                for ( String id: urlChanges.keySet()) {
+                    String url = urlChanges.get(id);
+                    String regex = "[<]\\s*input\\s+[^>]*id\\s*=\\s*[\"']\\s*" +
+                                    id + "\\s*[\"'][^>]*[>]";
+                    String replacement = "<a class='offline-link' href='" + url
+                                + "' style='float: right; margin-left: 15px;'>"
+                                + "Export for Excel</a>";
+                    newHtml = newHtml.replaceAll(regex, replacement);
+                }
+                break;
+        }
+        return newHtml;
+    }
+
+	@Override
+	public String getToolName() {
+		return TOOL_NAME;
+	}
+}
@@ -0,0 +1,167 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.sakaiproject.util.archiver.ParsingUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Renders a Samigo QTI (1.2) export of an assessment or question pool as a
+ * simple offline HTML page listing each question and its answer choices.
+ * The exported XML is kept in the archive next to the page.
+ */
+public class QtiRenderer {
+
+    /**
+     * Render a QTI file.
+     *
+     * @param qtiFile The exported XML.
+     * @param title The page title to use if the export has none.
+     * @param xmlLink The link to the XML file from the page.
+     * @return The HTML page.
+     * @throws IOException If the file is not valid XML.
+     */
+    public static String render( File qtiFile, String title, String xmlLink )
+            throws IOException {
+        Document doc = parse(qtiFile);
+        Element root = doc.getDocumentElement();
+        Element top = firstChild(root, "assessment");
+        if ( top == null ) {
+            top = firstChild(root, "objectbank");
+        }
+        if ( top == null ) {
+            top = firstChild(root, "section");
+        }
+        if ( top != null && top.getAttribute("title").length() > 0 ) {
+            title = top.getAttribute("title");
+        }
+
+        StringBuilder html = new StringBuilder();
+        html.append("<html>\r\n<head>\r\n<title>").append(ParsingUtils.escapeHtml(title))
+            .append("</title>\r\n")
+            .append("<link href=\"../sakai-offline.css\" type=\"text/css\" rel=\"stylesheet\" media=\"all\">\r\n")
+            .append("</head>\r\n<body>\r\n<div class=\"portletBody\">\r\n<h3>")
+            .append(ParsingUtils.escapeHtml(title)).append("</h3>\r\n");
+        html.append("<p><a href=\"").append(ParsingUtils.escapeHtml(xmlLink))
+            .append("\">QTI export (XML)</a></p>\r\n");
+
+        NodeList items = root.getElementsByTagName("item");
+        html.append("<ol>\r\n");
+        for ( int i = 0; i < items.getLength(); i++ ) {
+            renderItem((Element) items.item(i), html);
+        }
+        html.append("</ol>\r\n");
+        if ( items.getLength() == 0 ) {
+            html.append("<p>No questions.</p>\r\n");
+        }
+        html.append("</div>\r\n</body>\r\n</html>\r\n");
+        return html.toString();
+    }
+    /**
+     * Add a question and its choices.
+     *
+     * @param item
+     * @param html
+     */
+    protected static void renderItem( Element item, StringBuilder html ) {
+        html.append("<li>");
+        String itemTitle = item.getAttribute("title");
+        if ( itemTitle.length() > 0 ) {
+            html.append("<h4>").append(ParsingUtils.escapeHtml(itemTitle)).append("</h4>");
+        }
+        Element presentation = firstDescendant(item, "presentation");
+        if ( presentation != null ) {
+            // Question text is the material outside the response labels.
+            NodeList texts = presentation.getElementsByTagName("mattext");
+            for ( int i = 0; i < texts.getLength(); i++ ) {
+                Element text = (Element) texts.item(i);
+                if ( hasAncestor(text, "response_label", presentation) ) {
+                    continue;
+                }
+                html.append("<div>").append(material(text)).append("</div>");
+            }
+            NodeList labels = presentation.getElementsByTagName("response_label");
+            if ( labels.getLength() > 0 ) {
+                html.append("<ul>");
+                for ( int i = 0; i < labels.getLength(); i++ ) {
+                    Element label = (Element) labels.item(i);
+                    html.append("<li>");
+                    NodeList choiceTexts = label.getElementsByTagName("mattext");
+                    for ( int j = 0; j < choiceTexts.getLength(); j++ ) {
+                        html.append(material((Element) choiceTexts.item(j)));
+                    }
+                    html.append("</li>");
+                }
+                html.append("</ul>");
+            }
+        }
+        html.append("</li>\r\n");
+    }
+    private static String material( Element mattext ) {
+        String text = mattext.getTextContent();
+        if ( mattext.getAttribute("texttype").toLowerCase().contains("html") ) {
+            return encodeNonAscii(text);
+        }
+        return ParsingUtils.escapeHtml(text);
+    }
+    private static Document parse( File file ) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(
+                    "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(file);
+        } catch ( IOException e ) {
+            throw e;
+        } catch ( Exception e ) {
+            throw new IOException("Invalid QTI file " + file + ": " + e.getMessage());
+        }
+    }
+    private static Element firstChild( Element parent, String name ) {
+        for ( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if ( node instanceof Element && node.getNodeName().equals(name) ) {
+                return (Element) node;
+            }
+        }
+        if ( parent.getNodeName().equals(name) ) {
+            return parent;
+        }
+        return null;
+    }
+    private static Element firstDescendant( Element parent, String name ) {
+        NodeList nodes = parent.getElementsByTagName(name);
+        return nodes.getLength() == 0 ? null : (Element) nodes.item(0);
+    }
+    private static boolean hasAncestor( Node node, String name, Node stop ) {
+        for ( Node parent = node.getParentNode(); parent != null && parent != stop;
+              parent = parent.getParentNode() ) {
+            if ( parent.getNodeName().equals(name) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static String encodeNonAscii( String s ) {
+        StringBuilder result = new StringBuilder(s.length());
+        for ( int i = 0; i < s.length(); ) {
+            int c = s.codePointAt(i);
+            if ( c > 127 ) {
+                result.append("&#").append(c).append(';');
+            }
+            else {
+                result.append((char) c);
+            }
+            i += Character.charCount(c);
+        }
+        return result.toString();
+    }
+}
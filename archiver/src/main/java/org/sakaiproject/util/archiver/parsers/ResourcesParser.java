@@ -0,0 +1,365 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.ParsingUtils;
+import org.sakaiproject.util.archiver.ToolParser;
+import org.sakaiproject.util.archiver.WebDavLister;
+
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlInlineFrame;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+public class ResourcesParser extends ToolParser {
+
+	public static final String TOOL_NAME = "resources";
+	/** Finds the links to closed folders */
+	public static final String OPEN_FOLDER_XPATH = "//a[@title='Open this folder']";
+	/** Directory (under the site archive) that folder ZIPs are downloaded to */
+	public static final String ZIP_DIRECTORY = ".zip";
+
+	@Override
+	public void initialize() {
+		setSubdirectory(getToolName());
+	}
+
+	@Override
+	public String getToolName() {
+		return TOOL_NAME;
+	}
+
+	@Override
+	public void parse() throws Exception {
+		super.parse();
+		HtmlPage page = getCurrentPage();
+		if (page == null) return;
+		setParentPage(page);
+		List<?> elements = ParsingUtils.findElementWithCssClass(page, "iframe", "portletMainIframe");
+		String path = ((HtmlInlineFrame) elements.get(0)).getSrcAttribute();
+        HtmlPage resources = getWebClient().getPage(path);
+
+        // Start downloading every file found by WebDAV.  Links on the saved
+        // listing page pick up the same downloads.
+        int webDavFiles = -1;
+        if ( Boolean.parseBoolean(getArchiver().getOption(Archiver.RESOURCES_WEBDAV)) ) {
+            webDavFiles = queueWebDavFiles();
+        }
+
+        // Try opening every folder with one request first.
+        resources = expandAll(resources, path);
+
+        // Loop thru page invoking folder expansion ajax links until all folders opened.
+        List<?> folders = resources.getByXPath(OPEN_FOLDER_XPATH);
+        if ( folders.size() > 0 ) {
+            msg("Opening " + folders.size() + " resource folders one at a time.",
+                    Archiver.DEBUG);
+        }
+        while ( folders.size() > 0 ) {
+        	HtmlAnchor link = (HtmlAnchor) folders.get(0);
+        	resources = link.click();
+        	folders = resources.getByXPath(OPEN_FOLDER_XPATH);
+        }
+
+        // Get each top level folder as one ZIP.  Files not in a ZIP are
+        // downloaded one at a time when the page is saved.  Skipped if the
+        // WebDAV downloads are already writing the same files.
+        if ( Boolean.parseBoolean(getArchiver().getOption(Archiver.RESOURCES_ZIP)) ) {
+            if ( webDavFiles >= 0 ) {
+                msg("Resource files were queued from the WebDAV listing, not using folder ZIPs.",
+                        Archiver.DEBUG);
+            }
+            else {
+                expandFolderZips(resources, path);
+            }
+        }
+
+        // Overwrite the default frame with the "opened" version.
+		String name = getSubdirectory() + FilenameUtils.getName(new URL(path).getPath());
+       	msg("Updating resource iframe: " + name + "(" +
+                resources.getTitleText()+")", Archiver.NORMAL);
+       	savePage(resources, name );
+	}
+	/**
+	 * Open all the folders with the Resources tool's expand all action,
+	 * instead of clicking each folder (which reloads the whole listing every
+	 * time).
+	 *
+	 * @param resources The resources listing page.
+	 * @param path The listing page URL.
+	 * @return The expanded listing, or the original page if the expand all
+	 *         action didn't work.
+	 */
+	public HtmlPage expandAll( HtmlPage resources, String path ) {
+	    if ( resources.getByXPath(OPEN_FOLDER_XPATH).isEmpty() ) {
+	        return resources;
+	    }
+	    String expandURL = path.split("\\?")[0] + "?sakai_action=doExpandall";
+	    try {
+	        Page page = getWebClient().getPage(expandURL);
+	        if ( page instanceof HtmlPage &&
+	             page.getWebResponse().getStatusCode() < 400 &&
+	             ! ((HtmlPage) page).getByXPath("//a[@title='Close this folder']").isEmpty() ) {
+	            return (HtmlPage) page;
+	        }
+	    } catch ( Exception e ) {
+	        // Use the folder by folder expansion.
+	    }
+	    msg("Resources expand all did not work, opening folders one at a time.",
+	            Archiver.DEBUG);
+	    return resources;
+	}
+	/**
+	 * List the site's resources with a WebDAV PROPFIND and queue all the
+	 * files with the FileDownloader.  Files are saved under the
+	 * access/content/group/[site id]/ path used by the Resources tool links.
+	 *
+	 * @return The number of files queued or -1 if the listing failed.
+	 */
+	public int queueWebDavFiles() {
+	    try {
+	        URI davBase = new URI(getWebDavURL());
+	        URI siteBase = new URI(getArchiver().getOption(Archiver.SAKAI_BASE_URL));
+	        String accessBase = siteBase.getScheme() + "://" + siteBase.getRawAuthority() +
+	                "/access/content/group/" + getArchiver().getSite() + "/";
+	        WebDavLister lister = new WebDavLister(
+	                getArchiver().getStreamingDownloader(), getWebClient());
+	        List<WebDavLister.Entry> files = lister.listFiles(davBase);
+	        File base = new File(getArchiver().getBasePath());
+	        int count = 0;
+	        for ( WebDavLister.Entry entry: files ) {
+	            String davPath = entry.getUri().getRawPath();
+	            if ( ! davPath.startsWith(davBase.getRawPath()) ) {
+	                continue;
+	            }
+	            URL url = new URL(accessBase + davPath.substring(davBase.getRawPath().length()));
+	            String localPath = URLDecoder.decode(url.getPath(), "UTF-8").substring(1);
+	            getArchiver().getFileDownloader().download(url, url.toExternalForm(),
+	                    new File(base, localPath), localPath, null);
+	            count++;
+	        }
+	        msg("WebDAV listing found " + count + " resource files.", Archiver.NORMAL);
+	        return count;
+	    } catch ( Exception e ) {
+	        msg("Could not list resources with WebDAV, using the Resources tool pages: " +
+	                e.getMessage(), Archiver.WARNING);
+	        return -1;
+	    }
+	}
+	/**
+	 * Get the WebDAV collection URL for the site's resources.
+	 *
+	 * @return The URL (ending with /).
+	 */
+	public String getWebDavURL() {
+	    String davBase = getArchiver().getOption(Archiver.WEBDAV_BASE_URL);
+	    if ( davBase.equals("") ) {
+	        davBase = getArchiver().getOption(Archiver.SAKAI_BASE_URL)
+	                .replaceFirst("/portal/site/$", "/dav/");
+	    }
+	    if ( ! davBase.endsWith("/") ) {
+	        davBase += "/";
+	    }
+	    return davBase + getArchiver().getSite() + "/";
+	}
+	/**
+	 * Download each top level folder of the site's resources as a ZIP made
+	 * by the server and expand it into the access/content/group/[site id]/
+	 * layout used by the resource links.  The expanded files are added to the
+	 * saved page index so PageSaver does not download them again.  Files that
+	 * are linked but not in a ZIP are left for PageSaver to download.
+	 *
+	 * @param resources The expanded resources listing page.
+	 * @param path The listing page URL.
+	 * @return The number of files expanded.
+	 */
+	public int expandFolderZips( HtmlPage resources, String path ) {
+	    String site = getArchiver().getSite();
+	    String groupPath = "/access/content/group/" + site + "/";
+	    // Decoded local path -> link URL, grouped by top level folder.
+	    Map<String,Map<String,URL>> folders = new LinkedHashMap<String,Map<String,URL>>();
+	    for ( HtmlAnchor anchor: resources.getAnchors() ) {
+	        String href = anchor.getHrefAttribute();
+	        if ( ! href.contains(groupPath) ) {
+	            continue;
+	        }
+	        try {
+	            URL url = resources.getFullyQualifiedUrl(href);
+	            String decoded = URLDecoder.decode(url.getPath(), "UTF-8");
+	            if ( ! decoded.startsWith(groupPath) || decoded.endsWith("/") ) {
+	                continue;
+	            }
+	            String relative = decoded.substring(groupPath.length());
+	            int slash = relative.indexOf('/');
+	            if ( slash <= 0 ) {
+	                continue;  // Files in the site root are not in a folder ZIP.
+	            }
+	            String folder = relative.substring(0, slash);
+	            if ( ! folders.containsKey(folder) ) {
+	                folders.put(folder, new HashMap<String,URL>());
+	            }
+	            folders.get(folder).put(decoded.substring(1), url);
+	        } catch ( Exception e ) {
+	            // Leave it for PageSaver.
+	        }
+	    }
+
+	    File base = new File(getArchiver().getBasePath());
+	    File zipDir = new File(base, ZIP_DIRECTORY);
+	    int total = 0;
+	    for ( String folder: folders.keySet() ) {
+	        Map<String,URL> links = folders.get(folder);
+	        File zip = new File(zipDir, folder + ".zip");
+	        try {
+	            WebRequest request = new WebRequest(new URL(getZipURL(path, folder)));
+	            getArchiver().getStreamingDownloader().download(getWebClient(), request, zip);
+	            int count = expandZip(zip, groupPath.substring(1) + folder + "/", links);
+	            total += count;
+	            msg("Expanded " + count + " files from the " + folder + " folder ZIP (" +
+	                    (links.size() > count ? links.size() - count : 0) +
+	                    " linked files missing).", Archiver.DEBUG);
+	        } catch ( Exception e ) {
+	            msg("Could not get a ZIP of resource folder " + folder +
+	                    ", downloading its files one at a time: " + e.getMessage(),
+	                    Archiver.WARNING);
+	        } finally {
+	            zip.delete();
+	        }
+	    }
+	    FileUtils.deleteQuietly(zipDir);
+	    return total;
+	}
+	/**
+	 * Expand a folder ZIP into the archive.
+	 *
+	 * @param zip
+	 * @param folderPath The folder's local path (e.g. access/content/group/site/docs/).
+	 * @param links The folder's links on the listing page, by decoded local path.
+	 * @return The number of files expanded.
+	 * @throws IOException If the file is not a ZIP or could not be read.
+	 */
+	protected int expandZip( File zip, String folderPath, Map<String,URL> links )
+	        throws IOException {
+	    File base = new File(getArchiver().getBasePath()).getCanonicalFile();
+	    String folderName = folderPath.substring(0, folderPath.length() - 1);
+	    folderName = folderName.substring(folderName.lastIndexOf('/') + 1) + "/";
+	    String accessBase = getArchiver().getOption(Archiver.SAKAI_BASE_URL)
+	            .replaceFirst("^(https?://[^/]+).*$", "$1/");
+	    ZipFile zipFile = new ZipFile(zip);
+	    int count = 0;
+	    boolean empty = true;
+	    try {
+	        // Some servers put the folder itself at the top of the ZIP, but
+	        // only strip it if every entry is under it, since the folder may
+	        // also have a sub-folder with the same name.
+	        boolean prefixed = true;
+	        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+	        while ( entries.hasMoreElements() ) {
+	            empty = false;
+	            if ( ! getEntryName(entries.nextElement()).startsWith(folderName) ) {
+	                prefixed = false;
+	                break;
+	            }
+	        }
+	        entries = zipFile.entries();
+	        while ( entries.hasMoreElements() ) {
+	            ZipEntry entry = entries.nextElement();
+	            String name = getEntryName(entry);
+	            if ( prefixed ) {
+	                name = name.substring(folderName.length());
+	            }
+	            if ( entry.isDirectory() || name.equals("") ) {
+	                continue;
+	            }
+	            String localPath = folderPath + name;
+	            File file = new File(base, localPath).getCanonicalFile();
+	            if ( ! file.getPath().startsWith(base.getPath() + File.separator) ) {
+	                msg("Skipping ZIP entry outside the archive: " + entry.getName(),
+	                        Archiver.WARNING);
+	                continue;
+	            }
+	            file.getParentFile().mkdirs();
+	            InputStream in = zipFile.getInputStream(entry);
+	            OutputStream out = new FileOutputStream(file);
+	            try {
+	                IOUtils.copy(in, out);
+	            } finally {
+	                out.close();
+	                in.close();
+	            }
+	            URL url = links.get(localPath);
+	            if ( url == null ) {
+	                url = new URL(accessBase + encodePath(localPath));
+	            }
+	            getArchiver().getSavedPages().add(url, localPath);
+	            if ( getArchiver().getJournal() != null ) {
+	                getArchiver().getJournal().fileComplete(url, localPath, file);
+	            }
+	            count++;
+	        }
+	    } finally {
+	        zipFile.close();
+	    }
+	    if ( empty ) {
+	        throw new IOException("Response was not a ZIP file");
+	    }
+	    return count;
+	}
+	/**
+	 * Get a ZIP entry's name as a relative path with / separators.
+	 *
+	 * @param entry
+	 * @return The name.
+	 */
+	private static String getEntryName( ZipEntry entry ) {
+	    String name = entry.getName().replace('\\', '/');
+	    while ( name.startsWith("/") ) {
+	        name = name.substring(1);
+	    }
+	    return name;
+	}
+	/**
+	 * Get the URL of a folder's ZIP from the resources.zip.url template.
+	 *
+	 * @param path The listing page URL.
+	 * @param folder The top level folder name.
+	 * @return The URL.
+	 * @throws IOException
+	 */
+	public String getZipURL( String path, String folder ) throws IOException {
+	    return getArchiver().getOption(Archiver.RESOURCES_ZIP_URL)
+	            .replace("{tool}", path.split("\\?")[0])
+	            .replace("{site}", URLEncoder.encode(getArchiver().getSite(), "UTF-8"))
+	            .replace("{folder}", URLEncoder.encode(folder, "UTF-8").replace("+", "%20"));
+	}
+	private static String encodePath( String path ) throws IOException {
+	    StringBuilder encoded = new StringBuilder();
+	    for ( String segment: path.split("/") ) {
+	        if ( encoded.length() > 0 ) {
+	            encoded.append('/');
+	        }
+	        encoded.append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+	    }
+	    return encoded.toString();
+	}
+}
@@ -3,13 +3,17 @@ package org.sakaiproject.util.archiver.parsers;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.FileDownloader;
 import org.sakaiproject.util.archiver.ParsingUtils;
 import org.sakaiproject.util.archiver.ToolParser;
 
@@ -106,7 +110,8 @@ public class RosterParser extends ToolParser {
         savePage(GROUPS_PAGE, page, name);
     }
     /**
-     * Parse the facebook page.
+     * Parse the facebook page.  Student pictures (if allowed) are downloaded
+     * on the FileDownloader's worker threads and streamed straight to disk.
      *
      * @param page
      * @throws IOException
@@ -120,27 +125,47 @@ public class RosterParser extends ToolParser {
         Map<String,String> urlChanges = new HashMap<String,String>();
         boolean imagesAllowed = Boolean.parseBoolean(
                 getArchiver().getOption(Archiver.DOWNLOAD_STUDENT_PICTURES));
+        Map<String,Future<String>> photos = new HashMap<String,Future<String>>();
+        String referer = page.getUrl().toExternalForm();
         for( Object obj: images ) {
             HtmlImage img = (HtmlImage) obj;
             String src = img.getSrcAttribute();
             if ( ! src.startsWith("ParticipantImageServlet") ) {
                 continue;
             }
-            String localPath;
             if ( imagesAllowed ) {
                 Map<String,String> query =
                         ParsingUtils.getQueryMap(src.split("\\?")[1]);
                 String name = query.get("photo") + ".jpg";
                 File file = new File(getArchiver().getBasePath() +
                                             getSubdirectory() + name );
-                file.getParentFile().mkdirs();
-                img.saveAs(file);
-                localPath = name;
+                URL url = page.getFullyQualifiedUrl(src);
+                FileDownloader downloader = getArchiver().getFileDownloader();
+                photos.put(src, downloader.download(url, src, file, name, referer));
             }
             else {
+                urlChanges.put(src, "../not-available-photo.png");
+            }
+        }
+
+        // Wait for the pictures.
+        for ( String src: photos.keySet() ) {
+            String localPath;
+            try {
+                localPath = photos.get(src).get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading student pictures");
+            } catch ( ExecutionException e ) {
+                localPath = null;
+            }
+            if ( localPath == null || localPath.startsWith("fileNotFound.htm") ) {
                 localPath = "../not-available-photo.png";
             }
-            urlChanges.put(src,localPath);
+            urlChanges.put(src, localPath);
+        }
+        if ( ! photos.isEmpty() ) {
+            msg("Downloaded " + photos.size() + " student pictures.", Archiver.DEBUG);
         }
         getPageUrlUpdates().put("MAIN_PAGE", urlChanges);
 
@@ -1,20 +1,36 @@
 package org.sakaiproject.util.archiver.parsers;
 
+import java.io.File;
 import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
+import org.sakaiproject.util.archiver.ArchiveJournal;
 import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.NavigationReplayer;
 import org.sakaiproject.util.archiver.ParsingUtils;
 import org.sakaiproject.util.archiver.ToolParser;
 
 import com.gargoylesoftware.htmlunit.ElementNotFoundException;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
 import com.gargoylesoftware.htmlunit.html.HtmlButton;
 import com.gargoylesoftware.htmlunit.html.HtmlDivision;
@@ -133,8 +149,23 @@ public class SamigoParser extends ToolParser {
 	    // Parse the individual question pools.
 	    Map<String,String> urlMods = new HashMap<String,String>();
 	    for( String poolLinkId: poolIds.keySet() ) {
+	        String poolId = poolIds.get(poolLinkId);
+	        // Link to the pool's QTI view from its scraped page (if any).
+	        Map<String,String> qtiLink = new HashMap<String,String>();
+	        if ( isQtiExport() ) {
+	            String filename = exportQti(Archiver.SAMIGO_QTI_POOL_URL, poolId,
+	                    "question-pool-" + poolId + "-qti");
+	            if ( filename != null && ! isQtiScrapePages() ) {
+	                urlMods.put(poolLinkId, filename);
+	                continue;
+	            }
+	            if ( filename != null ) {
+	                qtiLink.put("QTI", filename);
+	            }
+	        }
+	        getPageUrlUpdates().put("QUESTION_POOL_QTI", qtiLink);
 	        String filename =
-	                parseQuestionPool(page, poolIds.get(poolLinkId), poolLinkId);
+	                parseQuestionPool(page, poolId, poolLinkId);
 	        urlMods.put(poolLinkId, filename);
 
 	        // Reload the question pool page
@@ -269,6 +300,14 @@ public class SamigoParser extends ToolParser {
 	        links.put("Edit", filename);
             savePage(EDIT, editPage, filepath);
 
+            if ( isQtiExport() ) {
+                String qtiFilename = exportQti(Archiver.SAMIGO_QTI_ASSESSMENT_URL, id,
+                        "assessment-" + id + "-qti");
+                if ( qtiFilename != null ) {
+                    links.put("QTI", qtiFilename);
+                }
+            }
+
             // Parse settings page - JavaScript on link fails so fill out form
             // manually, add submit button, and submit form to get settings.
             HtmlForm form = (HtmlForm) editPage.getElementById("assesssmentForm");
@@ -427,6 +466,7 @@ public class SamigoParser extends ToolParser {
         // Get index id's of links to Student submissions.
         List<Integer> linkIndices = new ArrayList<Integer>();
         List<String> students = new ArrayList<String>();
+        List<String> onClicks = new ArrayList<String>();
         int index = 0;
         for( HtmlAnchor link: stAnchors ) {
             // Skip internal page anchors.
@@ -436,27 +476,205 @@ public class SamigoParser extends ToolParser {
             }
             linkIndices.add(new Integer(index++));
             students.add(link.getTextContent());
+            onClicks.add(link.getOnClickAttribute());
+        }
+        Map<String,String> urlUpdates;
+        int threads = Integer.parseInt(getArchiver().getOption(
+                Archiver.SAMIGO_STUDENT_THREADS));
+        if ( threads > 1 && linkIndices.size() > 1 &&
+             getArchiver().getWebClientPool() != null ) {
+            urlUpdates = parseStudentsParallel(id, selectId, linkIndices,
+                    students, onClicks, threads);
+        }
+        else {
+            urlUpdates = parseStudents(getWebClient(), id, selectId,
+                    linkIndices, students, onClicks, null);
+        }
+        getPageUrlUpdates().put("SCORES_MAIN", urlUpdates);
+
+        // Reload master page.
+        HtmlPage mainPage = loadToolMainPage();
+        HtmlSelect select = (HtmlSelect) mainPage.getElementById(selectId);
+        HtmlOption option = select.getOptionByValue("scores");
+        page = select.setSelectedAttribute(option, true);
+    }
+    /**
+     * Save the student submissions with several sessions.  The students are
+     * split into one block of consecutive links per session.  The first
+     * block uses the parser's own client and the others use clients from
+     * the Archiver's WebClient pool (a block that can't get one is left to
+     * the retry pass).  Submissions a session rejected (because they failed
+     * to load or were another student's page, which can happen because the
+     * sessions share the Sakai session) are loaded again one at a time with
+     * the parser's own client.
+     *
+     * @return The merged submission id to filename map.
+     * @throws Exception
+     */
+    private Map<String,String> parseStudentsParallel( final String id,
+            final String selectId, List<Integer> linkIndices,
+            List<String> students, List<String> onClicks, int threads )
+                    throws Exception {
+        final List<Integer> retries =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        int blocks = Math.min(threads, linkIndices.size());
+        int blockSize = (linkIndices.size() + blocks - 1) / blocks;
+        msg("Loading " + linkIndices.size() + " submissions with up to " + blocks +
+                " sessions.", Archiver.NORMAL);
+
+        ExecutorService executor = Executors.newFixedThreadPool(blocks);
+        List<Future<Map<String,String>>> results =
+                new ArrayList<Future<Map<String,String>>>();
+        List<List<Integer>> blockLinks = new ArrayList<List<Integer>>();
+        try {
+            for ( int start = 0; start < linkIndices.size(); start += blockSize ) {
+                int end = Math.min(start + blockSize, linkIndices.size());
+                final boolean ownClient = start == 0;
+                final List<Integer> blockIndices = linkIndices.subList(start, end);
+                final List<String> blockStudents = students.subList(start, end);
+                final List<String> blockOnClicks = onClicks.subList(start, end);
+                blockLinks.add(blockIndices);
+                results.add(executor.submit(new Callable<Map<String,String>>() {
+                    public Map<String,String> call() throws Exception {
+                        if ( ownClient ) {
+                            return parseStudents(getWebClient(), id, selectId,
+                                    blockIndices, blockStudents, blockOnClicks, retries);
+                        }
+                        WebClient client = checkoutSubSession();
+                        if ( client == null ) {
+                            msg("No free session for " + blockIndices.size() +
+                                    " submissions, will load them afterwards.", Archiver.DEBUG);
+                            retries.addAll(blockIndices);
+                            return new HashMap<String,String>();
+                        }
+                        try {
+                            return parseStudents(client, id, selectId, blockIndices,
+                                    blockStudents, blockOnClicks, retries);
+                        } finally {
+                            releaseSubSession(client);
+                        }
+                    }
+                }));
+            }
+            Map<String,String> urlUpdates = new HashMap<String,String>();
+            for ( int i = 0; i < results.size(); i++ ) {
+                try {
+                    urlUpdates.putAll(results.get(i).get());
+                } catch ( ExecutionException e ) {
+                    msg("Submission session failed: " + e.getCause(), Archiver.WARNING);
+                    retries.addAll(blockLinks.get(i));
+                }
+            }
+            // Rejected submissions are loaded one at a time.
+            Set<Integer> rejected = new HashSet<Integer>(retries);
+            List<Integer> retryIndices = new ArrayList<Integer>();
+            List<String> retryStudents = new ArrayList<String>();
+            List<String> retryOnClicks = new ArrayList<String>();
+            for ( int i = 0; i < linkIndices.size(); i++ ) {
+                if ( rejected.contains(linkIndices.get(i)) ) {
+                    retryIndices.add(linkIndices.get(i));
+                    retryStudents.add(students.get(i));
+                    retryOnClicks.add(onClicks.get(i));
+                }
+            }
+            if ( ! retryIndices.isEmpty() ) {
+                msg("Reloading " + retryIndices.size() + " submissions one at a time.",
+                        Archiver.NORMAL);
+                urlUpdates.putAll(parseStudents(getWebClient(), id, selectId,
+                        retryIndices, retryStudents, retryOnClicks, null));
+            }
+            return urlUpdates;
+        } finally {
+            executor.shutdown();
         }
+    }
+    /**
+     * Save the submissions for a list of students.  Each page is checked
+     * against the student's link (see isSubmissionPage) before it is saved.
+     *
+     * @param client The WebClient to load the pages with.
+     * @param id The assessment's id number
+     * @param selectId The id of the select statement being processed.
+     * @param linkIndices The student link indexes in the scores table.
+     * @param students The student names (same order as linkIndices)
+     * @param onClicks The student link onclick values (same order)
+     * @param retries If not null, the link indexes of submissions that
+     *        failed or were not the student's page are added here instead
+     *        of stopping the parse.  If null, those are reported and skipped.
+     * @return The submission id to filename map.
+     * @throws Exception
+     */
+    private Map<String,String> parseStudents( WebClient client, String id,
+            String selectId, List<Integer> linkIndices, List<String> students,
+            List<String> onClicks, List<Integer> retries ) throws Exception {
+        // The first submission is loaded by clicking, the rest by replaying
+        // the recorded request with each student's link values.
+        NavigationReplayer replayer = new NavigationReplayer(client);
 
         Map<String,String> urlUpdates = new HashMap<String,String>();
         Iterator<String> itr = students.iterator();
+        Iterator<String> onClickItr = onClicks.iterator();
+        ArchiveJournal journal = getArchiver().getJournal();
         for ( Integer linkIndex: linkIndices ) {
             String student = itr.next();
+            String onClick = onClickItr.next();
+            String stepKey = getToolName() + ":" + id + ":" + linkIndex + ":" + student;
+            String savedId = journal == null ? null : journal.getStep(stepKey);
+            if ( savedId != null ) {
+                msg("Skipping submission saved in previous run for " + student,
+                        Archiver.NORMAL );
+                urlUpdates.put(savedId, "assessment-" + id +
+                        "-student-response-" + savedId);
+                continue;
+            }
             msg("Getting submission for " + student, Archiver.NORMAL );
-            // Reload master page by getting tool master and then subpage.
-            HtmlPage mainPage = loadToolMainPage();
-            HtmlSelect select = (HtmlSelect) mainPage.getElementById(selectId);
-            HtmlOption option = select.getOptionByValue("scores");
-            page = select.setSelectedAttribute(option, true);
-
-            scoreTable =
-                    page.getHtmlElementById("editTotalResults:totalScoreTable");
-            scoreBodies = scoreTable.getHtmlElementsByTagName("tbody");
-            scoreBody = scoreBodies.get(0);
-            stAnchors = scoreBody.getHtmlElementsByTagName("a");
-            HtmlAnchor link = stAnchors.get(linkIndex.intValue());
-
-            page = (HtmlPage) link.click();
+            final String expectedStudent = student;
+            final String gradingId = NavigationReplayer.parseFields(onClick).get("gradingData");
+            NavigationReplayer.Validator isSubmission = new NavigationReplayer.Validator() {
+                public boolean isValid( HtmlPage page ) {
+                    return isSubmissionPage(page, gradingId, expectedStudent);
+                }
+            };
+            HtmlPage page;
+            try {
+                page = replayer.replay(onClick, isSubmission);
+                if ( page == null ) {
+                    // Reload master page by getting tool master and then subpage.
+                    HtmlPage mainPage = client.getPage(getToolURL());
+                    HtmlSelect select = (HtmlSelect) mainPage.getElementById(selectId);
+                    HtmlOption option = select.getOptionByValue("scores");
+                    page = select.setSelectedAttribute(option, true);
+
+                    HtmlTable scoreTable =
+                            page.getHtmlElementById("editTotalResults:totalScoreTable");
+                    List<HtmlTableBody> scoreBodies = scoreTable.getHtmlElementsByTagName("tbody");
+                    HtmlTableBody scoreBody = scoreBodies.get(0);
+                    List<HtmlAnchor> stAnchors = scoreBody.getHtmlElementsByTagName("a");
+                    HtmlAnchor link = stAnchors.get(linkIndex.intValue());
+
+                    page = replayer.record(link);
+                }
+            } catch ( Exception e ) {
+                if ( retries == null ) {
+                    throw e;
+                }
+                msg("Could not load submission for " + student + ", will retry.",
+                        Archiver.WARNING);
+                retries.add(linkIndex);
+                continue;
+            }
+            if ( ! isSubmission.isValid(page) ) {
+                if ( retries != null ) {
+                    msg("Got another page instead of the submission for " + student +
+                            ", will retry.", Archiver.WARNING);
+                    retries.add(linkIndex);
+                }
+                else {
+                    msg("Got another page instead of the submission for " + student +
+                            ", it was not saved.", Archiver.ERROR);
+                }
+                continue;
+            }
             HtmlInput input = page.getHtmlElementById("editStudentResults:gradingData");
             String subId = input.getValueAttribute().trim();
             String filename = "assessment-" + id + "-student-response-" + subId;
@@ -464,14 +682,39 @@ public class SamigoParser extends ToolParser {
 
             urlUpdates.put(subId, filename);
             savePage(STUDENT_SUBMISSION, page, filepath);
+            if ( journal != null ) {
+                journal.stepComplete(stepKey, subId);
+            }
         }
-        getPageUrlUpdates().put("SCORES_MAIN", urlUpdates);
-
-        // Reload master page.
-        HtmlPage mainPage = loadToolMainPage();
-        HtmlSelect select = (HtmlSelect) mainPage.getElementById(selectId);
-        HtmlOption option = select.getOptionByValue("scores");
-        page = select.setSelectedAttribute(option, true);
+        msg(replayer.getStats(), Archiver.DEBUG);
+        return urlUpdates;
+    }
+    /**
+     * Check that a page is a student's submission.  Any submission page has
+     * the gradingData field, so it must have the grading id the student's
+     * link sets or, if the link has none, the student's name.
+     *
+     * @param page
+     * @param gradingId The gradingData value from the student's link (may be null).
+     * @param student The student's name as shown on the Total Scores page.
+     * @return True if the page is the student's submission.
+     */
+    public static boolean isSubmissionPage( HtmlPage page, String gradingId,
+                                            String student ) {
+        DomElement input = page.getElementById("editStudentResults:gradingData");
+        if ( ! (input instanceof HtmlInput) ) {
+            return false;
+        }
+        if ( gradingId != null && ! gradingId.trim().equals("") ) {
+            return gradingId.trim().equals(((HtmlInput) input).getValueAttribute().trim());
+        }
+        String text = page.asText();
+        for ( String part: student.trim().split("[\\s,]+") ) {
+            if ( ! text.contains(part) ) {
+                return false;
+            }
+        }
+        return true;
     }
     /**
      * Parse the main subpages of the Scores section.
@@ -620,6 +863,15 @@ public class SamigoParser extends ToolParser {
                 script = "\\$('A.treefolder').addClass('treedoc').removeClass('treefolder');";
                 js += ParsingUtils.addInlineJavaScript(script);
                 break;
+            case QUESTION_POOL_SUBPAGE:
+                Map<String,String> qtiLink = getPageUrlUpdates().get("QUESTION_POOL_QTI");
+                if ( qtiLink != null && qtiLink.containsKey("QTI") ) {
+                    script = "\\$(\"form\").first().prepend(\"<p class='navViewAction'>" +
+                            "<a class='offline-link' href='" + qtiLink.get("QTI") +
+                            "'>QTI export</a></p>\");";
+                    js += ParsingUtils.addInlineJavaScript(script);
+                }
+                break;
         }
         String toolPage = getToolPageName();
         script = "\\$('ul.navIntraTool a').each(function() {"
@@ -673,6 +925,45 @@ public class SamigoParser extends ToolParser {
         this.studentScores = studentScores;
     }
 
+    /**
+     * Download an assessment or question pool as a QTI XML package and save
+     * a simple HTML view of its questions next to it.
+     *
+     * @param urlOption The option with the export URL template.  {server} is
+     *        replaced by the Sakai server and {id} by the id.
+     * @param id The assessment or pool id.
+     * @param filename The HTML view file name.  The XML is saved as
+     *        filename.xml.
+     * @return The filename or null if the export failed.
+     */
+    public String exportQti( String urlOption, String id, String filename ) {
+        String filepath = getSubdirectory() + filename;
+        try {
+            URI tool = new URI(getToolURL());
+            String url = getArchiver().getOption(urlOption)
+                    .replace("{server}", tool.getScheme() + "://" + tool.getRawAuthority())
+                    .replace("{id}", URLEncoder.encode(id, "UTF-8"));
+            File xml = new File(getArchiver().getBasePath() + filepath + ".xml");
+            getArchiver().getStreamingDownloader().download(getWebClient(),
+                    new WebRequest(new URL(url)), xml, getArchiver().getManifest());
+            String html = QtiRenderer.render(xml, filename, filename + ".xml");
+            saveContentString(html, filepath);
+            msg("Saved QTI export in " + filepath + ".xml", Archiver.NORMAL);
+            return filename;
+        } catch ( Exception e ) {
+            msg("Could not export QTI for " + filename + ": " + e.getMessage(),
+                    Archiver.WARNING);
+            return null;
+        }
+    }
+    public boolean isQtiExport() {
+        return Boolean.parseBoolean(
+                getArchiver().getOption(Archiver.SAMIGO_QTI_EXPORT));
+    }
+    public boolean isQtiScrapePages() {
+        return Boolean.parseBoolean(
+                getArchiver().getOption(Archiver.SAMIGO_QTI_SCRAPE_PAGES));
+    }
     public boolean isQuestionPoolAllowed() {
         return Boolean.parseBoolean(
                 getArchiver().getOption(Archiver.PARSE_QUESTION_POOL));
@@ -57,14 +57,14 @@ public class SkinParser extends ToolParser {
             String path = link.getAttribute("href");
             if (path == null || path.equals("")) continue;
 
+            URL cssUrl = page.getFullyQualifiedUrl(path);
             if ( path.startsWith("/")) {
             	path = path.substring(1);
             }
-            if ( ! getArchiver().getSavedPages().contains(path)) {
+            if ( getArchiver().getSavedPages().claim(cssUrl, path)) {
 	            WebResponse resp = link.getWebResponse(true);
 	            String css = resp.getContentAsString();
 	            saveContentString(css, path);
-	            getArchiver().getSavedPages().add(path);
 	            parseCssImages(css);
             }
         }
@@ -87,10 +87,9 @@ public class SkinParser extends ToolParser {
             if ( path.startsWith("/")) {
             	path = path.substring(1);
             }
-            if ( ! getArchiver().getSavedPages().contains(path)) {
-            	Page jsPage = getArchiver().getWebClient().getPage(url);
+            if ( getArchiver().getSavedPages().claim(url, path)) {
+            	Page jsPage = getWebClient().getPage(url);
 	            saveContentString(jsPage.getWebResponse().getContentAsString(), path);
-	            getArchiver().getSavedPages().add(path);
             }
         }
 	}
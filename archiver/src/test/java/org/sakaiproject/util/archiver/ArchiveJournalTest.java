@@ -0,0 +1,100 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumeReadsCompletedWork() throws IOException {
+        File base = folder.newFolder("site");
+        File saved = new File(base, "Resources/a.pdf");
+        saved.getParentFile().mkdirs();
+        saved.createNewFile();
+
+        ArchiveJournal journal = new ArchiveJournal(base);
+        journal.open(false);
+        journal.toolComplete("Forums");
+        journal.pageComplete("Forums/index.htm", new URL("http://h/portal/tool/1"));
+        journal.fileComplete(new URL("http://h/access/a.pdf"), "../Resources/a.pdf", saved);
+        journal.fileComplete(new URL("http://h/access/gone.pdf"), "../Resources/gone.pdf",
+                new File(base, "Resources/gone.pdf"));
+        journal.stepComplete("Samigo\tscores", "line\nbreak");
+        journal.close();
+
+        ArchiveJournal resumed = new ArchiveJournal(base);
+        resumed.open(true);
+        assertTrue(resumed.isToolComplete("Forums"));
+        assertFalse(resumed.isToolComplete("Samigo"));
+        assertTrue(resumed.isPageComplete("Forums/index.htm"));
+        assertFalse(resumed.isPageComplete("Forums/other.htm"));
+        // Tabs and line breaks in values are written as spaces.
+        assertEquals("line break", resumed.getStep("Samigo scores"));
+        assertNull(resumed.getStep("Samigo"));
+
+        SavedPageIndex index = new SavedPageIndex();
+        assertEquals(1, resumed.preload(index));
+        assertEquals("../Resources/a.pdf", index.getLocalPath("http://h/access/a.pdf"));
+        assertFalse(index.contains("http://h/access/gone.pdf"));
+        resumed.close();
+    }
+    @Test
+    public void partialLastLineIsIgnored() throws IOException {
+        File base = folder.newFolder("site");
+        ArchiveJournal journal = new ArchiveJournal(base);
+        journal.open(false);
+        journal.toolComplete("Home");
+        journal.close();
+        FileOutputStream out = new FileOutputStream(journal.getFile(), true);
+        try {
+            out.write("TOOL\tSylla".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        ArchiveJournal resumed = new ArchiveJournal(base);
+        resumed.open(true);
+        assertTrue(resumed.isToolComplete("Home"));
+        assertFalse(resumed.isToolComplete("Sylla"));
+        resumed.toolComplete("Syllabus");
+        resumed.close();
+
+        resumed = new ArchiveJournal(base);
+        resumed.open(true);
+        assertTrue(resumed.isToolComplete("Syllabus"));
+        assertFalse(resumed.isToolComplete("Sylla"));
+        assertFalse(resumed.isToolComplete("SyllaTOOL"));
+        resumed.close();
+    }
+    @Test
+    public void newRunStartsEmpty() throws IOException {
+        File base = folder.newFolder("site");
+        ArchiveJournal journal = new ArchiveJournal(base);
+        journal.open(false);
+        journal.toolComplete("Home");
+        journal.close();
+
+        ArchiveJournal restarted = new ArchiveJournal(base);
+        restarted.open(false);
+        assertFalse(restarted.isToolComplete("Home"));
+        restarted.close();
+        restarted = new ArchiveJournal(base);
+        restarted.open(true);
+        assertFalse(restarted.isToolComplete("Home"));
+        restarted.close();
+    }
+}
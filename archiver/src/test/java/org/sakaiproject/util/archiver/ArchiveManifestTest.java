@@ -0,0 +1,90 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+public class ArchiveManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        File base = folder.newFolder("site");
+        File file = write(new File(base, "Resources/week 1/notes.pdf"), "notes");
+        URL url = new URL("http://sakai.example.edu/access/content/group/site/week%201/notes.pdf");
+        ArchiveManifest manifest = new ArchiveManifest(base);
+        manifest.update(url, file, "\"abc\"", "Tue, 01 Sep 2015 10:00:00 GMT", 5,
+                ArchiveManifest.checksum(file));
+        manifest.update(new URL("http://sakai.example.edu/x.png"),
+                new File(base, "images/x.png"), null, "", 0, null);
+        manifest.save();
+
+        ArchiveManifest loaded = new ArchiveManifest(base);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        ArchiveManifest.Entry entry = loaded.get(url);
+        assertEquals(url.toExternalForm(), entry.getUrl());
+        assertEquals("Resources/week 1/notes.pdf", entry.getLocalPath());
+        assertEquals("\"abc\"", entry.getEtag());
+        assertEquals("Tue, 01 Sep 2015 10:00:00 GMT", entry.getLastModified());
+        assertEquals(5, entry.getSize());
+        assertEquals("3add7b9612102f2a7dbe4ed4fe886e07e847c24d", entry.getChecksum());
+
+        entry = loaded.get(new URL("http://SAKAI.example.edu:80/x.png"));
+        assertEquals("images/x.png", entry.getLocalPath());
+        assertNull(entry.getEtag());
+        assertNull(entry.getLastModified());
+        assertNull(entry.getChecksum());
+    }
+    @Test
+    public void loadWithoutFile() throws IOException {
+        ArchiveManifest manifest = new ArchiveManifest(folder.newFolder("empty"));
+        manifest.load();
+        assertEquals(0, manifest.size());
+    }
+    @Test
+    public void conditionalHeadersOnlyForUnchangedFiles() throws IOException {
+        File base = folder.newFolder("site");
+        File file = write(new File(base, "a.pdf"), "12345");
+        URL url = new URL("http://h/a.pdf");
+        ArchiveManifest manifest = new ArchiveManifest(base);
+        manifest.update(url, file, "\"e1\"", "Tue, 01 Sep 2015 10:00:00 GMT", 5, null);
+
+        WebRequest request = new WebRequest(url);
+        assertTrue(manifest.addConditionalHeaders(request, file));
+        assertEquals("\"e1\"", request.getAdditionalHeaders().get("If-None-Match"));
+        assertEquals("Tue, 01 Sep 2015 10:00:00 GMT",
+                request.getAdditionalHeaders().get("If-Modified-Since"));
+
+        assertFalse(manifest.addConditionalHeaders(new WebRequest(url),
+                new File(base, "b.pdf")));
+        write(file, "123456");
+        assertFalse(manifest.addConditionalHeaders(new WebRequest(url), file));
+        assertFalse(manifest.addConditionalHeaders(new WebRequest(new URL("http://h/c.pdf")),
+                file));
+    }
+    private static File write( File file, String content ) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
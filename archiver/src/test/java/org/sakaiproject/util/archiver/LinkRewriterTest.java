@@ -0,0 +1,64 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinkRewriterTest {
+
+    @Test
+    public void rewritesSrcAndHrefSeparately() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addSrc("http://h/a.png", "images/a.png");
+        rewriter.addHref("http://h/a.png", "files/a.png");
+        String html = "<img src=\"http://h/a.png\"><a href='http://h/a.png'>a</a>";
+        assertEquals("<img src=\"images/a.png\"><a href=\"files/a.png\">a</a>",
+                rewriter.rewrite(html));
+    }
+    @Test
+    public void comparesValuesLiterally() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addHref("http://h/x?a=(1)+[2]", "x.htm");
+        assertEquals("<a href=\"x.htm\">", rewriter.rewrite("<a href=\"http://h/x?a=(1)+[2]\">"));
+        // A regex would have matched this.
+        assertEquals("<a href=\"http://h/x?a=1+2\">",
+                rewriter.rewrite("<a href=\"http://h/x?a=1+2\">"));
+    }
+    @Test
+    public void matchesEscapedAmpersands() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addHref("http://h/x?a=1&b=2", "x.htm");
+        assertEquals("<a href=\"x.htm\">", rewriter.rewrite("<a href=\"http://h/x?a=1&amp;b=2\">"));
+    }
+    @Test
+    public void allowsSpacesAroundEquals() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addSrc("a.js", "../a.js");
+        assertEquals("<script src=\"../a.js\">", rewriter.rewrite("<script src = 'a.js'>"));
+    }
+    @Test
+    public void firstReplacementWins() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addHref("a.pdf", "first.pdf");
+        rewriter.addReplacement("href", "a.pdf", "href=\"second.pdf\" class=\"x\"");
+        assertEquals("<a href=\"first.pdf\">", rewriter.rewrite("<a href=\"a.pdf\">"));
+    }
+    @Test
+    public void replacesWholeAttribute() {
+        LinkRewriter rewriter = new LinkRewriter();
+        rewriter.addReplacement("href", "a.pdf", "href=\"fileNotFound.htm\" class=\"missing\"");
+        assertEquals("<a href=\"fileNotFound.htm\" class=\"missing\">a</a>",
+                rewriter.rewrite("<a href=\"a.pdf\">a</a>"));
+    }
+    @Test
+    public void returnsSameStringWhenNothingChanges() {
+        LinkRewriter rewriter = new LinkRewriter();
+        String html = "<a href=\"a.pdf\">a</a>";
+        assertTrue(rewriter.isEmpty());
+        assertSame(html, rewriter.rewrite(html));
+        rewriter.addHref("b.pdf", "c.pdf");
+        assertSame(html, rewriter.rewrite(html));
+    }
+}
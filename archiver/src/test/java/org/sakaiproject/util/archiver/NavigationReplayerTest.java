@@ -0,0 +1,163 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+
+public class NavigationReplayerTest {
+
+    private static final String LIST_URL = "http://sakai.test/portal/tool/forums/list";
+    private static final String FIRST_ONCLICK =
+            "document.forms['msgForum']['topicId'].value='7';" +
+            "document.forms['msgForum']['messageId'].value='101';" +
+            "document.forms['msgForum'].submit(); return false;";
+    private static final String SECOND_ONCLICK =
+            "document.forms['msgForum']['messageId'].value='202';" +
+            "document.forms['msgForum'].submit(); return false;";
+
+    private WebClient webClient;
+    private MockWebConnection connection;
+
+    @Before
+    public void setUp() {
+        webClient = new WebClient();
+        webClient.getOptions().setCssEnabled(false);
+        connection = new MockWebConnection();
+        connection.setDefaultResponse("<html><body><p>Thread page</p></body></html>");
+        webClient.setWebConnection(connection);
+    }
+    @After
+    public void tearDown() {
+        webClient.close();
+    }
+
+    @Test
+    public void parseFieldsFromAssignments() {
+        Map<String,String> fields = NavigationReplayer.parseFields(FIRST_ONCLICK);
+        Map<String,String> expected = new LinkedHashMap<String,String>();
+        expected.put("topicId", "7");
+        expected.put("messageId", "101");
+        assertEquals(expected, fields);
+    }
+    @Test
+    public void parseFieldsFromJsfcljs() {
+        Map<String,String> fields = NavigationReplayer.parseFields(
+                "if(typeof jsfcljs == 'function'){jsfcljs(document.forms['f']," +
+                "{'f:link':'f:link','itemId':'42'},'');}return false");
+        assertEquals(2, fields.size());
+        assertEquals("f:link", fields.get("f:link"));
+        assertEquals("42", fields.get("itemId"));
+    }
+    @Test
+    public void parseFieldsWithoutFields() {
+        assertTrue(NavigationReplayer.parseFields(null).isEmpty());
+        assertTrue(NavigationReplayer.parseFields("window.open('x.htm')").isEmpty());
+        // Object parameters only count in a jsfcljs call.
+        assertTrue(NavigationReplayer.parseFields("f({'a':'b'})").isEmpty());
+    }
+    @Test
+    public void createPostRequest() throws Exception {
+        NavigationReplayer replayer = recordFirst("post");
+        Map<String,String> fields = new LinkedHashMap<String,String>();
+        fields.put("messageId", "202");
+        WebRequest request = replayer.createRequest(fields);
+
+        assertEquals(HttpMethod.POST, request.getHttpMethod());
+        assertEquals("http://sakai.test/portal/tool/forums/thread", request.getUrl().toExternalForm());
+        Map<String,String> params = toMap(request);
+        assertEquals("202", params.get("messageId"));
+        // Set by the recorded onclick but not this one.
+        assertEquals("", params.get("topicId"));
+        assertEquals("1", params.get("msgForum_SUBMIT"));
+    }
+    @Test
+    public void createGetRequest() throws Exception {
+        NavigationReplayer replayer = recordFirst("get");
+        Map<String,String> fields = new LinkedHashMap<String,String>();
+        fields.put("messageId", "202");
+        fields.put("extra", "a b");
+        WebRequest request = replayer.createRequest(fields);
+
+        assertEquals(HttpMethod.GET, request.getHttpMethod());
+        assertEquals("http://sakai.test/portal/tool/forums/thread?" +
+                "topicId=&messageId=202&msgForum_SUBMIT=1&extra=a+b",
+                request.getUrl().toExternalForm());
+    }
+    @Test
+    public void replayUsesRecordedRequest() throws Exception {
+        NavigationReplayer replayer = recordFirst("post");
+        HtmlPage page = replayer.replay(SECOND_ONCLICK, contains("Thread page"));
+        assertNotNull(page);
+        assertEquals("202", toMap(connection.getLastWebRequest()).get("messageId"));
+        assertEquals(1, replayer.getReplays());
+        // The recorded entry itself is not replayed.
+        assertNull(replayer.replay(FIRST_ONCLICK, contains("Thread page")));
+        assertTrue(replayer.isEnabled());
+    }
+    @Test
+    public void rejectedReplayTurnsReplayingOff() throws Exception {
+        NavigationReplayer replayer = recordFirst("post");
+        assertNull(replayer.replay(SECOND_ONCLICK, contains("Not there")));
+        assertFalse(replayer.isEnabled());
+        assertEquals(1, replayer.getFallbacks());
+        assertNull(replayer.replay(SECOND_ONCLICK, contains("Thread page")));
+        assertEquals(0, replayer.getReplays());
+    }
+    @Test
+    public void replayWithoutRecording() {
+        NavigationReplayer replayer = new NavigationReplayer(webClient);
+        assertNull(replayer.replay(SECOND_ONCLICK, contains("Thread page")));
+        assertTrue(replayer.isEnabled());
+    }
+
+    private NavigationReplayer recordFirst( String method ) throws Exception {
+        connection.setResponse(new URL(LIST_URL),
+                "<html><body>" +
+                "<form id='msgForum' name='msgForum' method='" + method + "'" +
+                " action='/portal/tool/forums/thread'>" +
+                "<input type='hidden' name='topicId' value=''/>" +
+                "<input type='hidden' name='messageId' value=''/>" +
+                "<input type='hidden' name='msgForum_SUBMIT' value='1'/>" +
+                "<a id='first' href='#' onclick=\"" + FIRST_ONCLICK + "\">First</a>" +
+                "<a id='second' href='#' onclick=\"" + SECOND_ONCLICK + "\">Second</a>" +
+                "</form></body></html>");
+        HtmlPage list = webClient.getPage(LIST_URL);
+        NavigationReplayer replayer = new NavigationReplayer(webClient);
+        HtmlElement link = list.getHtmlElementById("first");
+        HtmlPage thread = replayer.record(link);
+        assertTrue(thread.asText().contains("Thread page"));
+        return replayer;
+    }
+    private static NavigationReplayer.Validator contains( final String text ) {
+        return new NavigationReplayer.Validator() {
+            public boolean isValid( HtmlPage page ) {
+                return page.asText().contains(text);
+            }
+        };
+    }
+    private static Map<String,String> toMap( WebRequest request ) {
+        Map<String,String> params = new LinkedHashMap<String,String>();
+        for ( NameValuePair pair: request.getRequestParameters() ) {
+            params.put(pair.getName(), pair.getValue());
+        }
+        return params;
+    }
+}
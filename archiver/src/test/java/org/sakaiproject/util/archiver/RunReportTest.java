@@ -0,0 +1,42 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RunReportTest {
+
+    @Test
+    public void successfulRun() {
+        RunMetrics metrics = new RunMetrics();
+        metrics.count("Home", RunMetrics.PAGES_SAVED, 2);
+        RunReport report = new RunReport("SITE1", metrics, true, null, 1500);
+        String json = report.toJson();
+        assertTrue(json.contains("\"success\": true"));
+        assertTrue(json.contains("\"error\": null"));
+        assertTrue(json.contains("\"Home\": { \"pagesSaved\": 2,"));
+        assertTrue(report.toPrometheus().contains("sakai_archiver_success{site=\"SITE1\"} 1\n"));
+    }
+    @Test
+    public void failedToolFailsTheRun() {
+        RunMetrics metrics = new RunMetrics();
+        metrics.count("Home", RunMetrics.PAGES_SAVED, 2);
+        metrics.count("Forums", RunMetrics.TOOL_FAILED, 1);
+        RunReport report = new RunReport("SITE1", metrics, true, null, 1500);
+        String json = report.toJson();
+        assertTrue(json.contains("\"success\": false"));
+        assertTrue(json.contains("\"error\": \"1 tool(s) failed\""));
+        assertTrue(json.contains("\"toolFailures\": 1,"));
+        String prom = report.toPrometheus();
+        assertTrue(prom.contains("sakai_archiver_success{site=\"SITE1\"} 0\n"));
+        assertTrue(prom.contains("sakai_archiver_tool_failures{site=\"SITE1\",tool=\"Forums\"} 1\n"));
+        assertTrue(prom.contains("sakai_archiver_tool_failures{site=\"SITE1\",tool=\"Home\"} 0\n"));
+    }
+    @Test
+    public void runErrorIsKept() {
+        RunMetrics metrics = new RunMetrics();
+        metrics.count("Forums", RunMetrics.TOOL_FAILED, 1);
+        RunReport report = new RunReport("SITE1", metrics, false, "Login failed", 10);
+        assertTrue(report.toJson().contains("\"error\": \"Login failed\""));
+    }
+}
@@ -0,0 +1,65 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SavedPageIndexTest {
+
+    @Test
+    public void lowerCasesSchemeAndHost() {
+        assertEquals("https://sakai.example.edu/portal/site/ABC",
+                SavedPageIndex.canonicalize("HTTPS://Sakai.Example.EDU/portal/site/ABC"));
+    }
+    @Test
+    public void removesDefaultPortOnly() {
+        assertEquals("http://sakai.example.edu/portal",
+                SavedPageIndex.canonicalize("http://sakai.example.edu:80/portal"));
+        assertEquals("https://sakai.example.edu/portal",
+                SavedPageIndex.canonicalize("https://sakai.example.edu:443/portal"));
+        assertEquals("http://localhost:8080/portal",
+                SavedPageIndex.canonicalize("http://localhost:8080/portal"));
+    }
+    @Test
+    public void removesFragmentAndSessionId() {
+        assertEquals("http://sakai.example.edu/access/content/a.pdf?x=1",
+                SavedPageIndex.canonicalize(
+                        "http://sakai.example.edu/access/content/a.pdf;jsessionid=ABC123?x=1#page=2"));
+    }
+    @Test
+    public void resolvesDotSegments() {
+        assertEquals("http://h/a/c/d.htm",
+                SavedPageIndex.canonicalize("http://h/a/b/../c/./d.htm"));
+        assertEquals("http://h/a/",
+                SavedPageIndex.canonicalize("http://h/a/b/.."));
+        assertEquals("http://h/x",
+                SavedPageIndex.canonicalize("http://h/../../x"));
+        assertEquals("http://h/",
+                SavedPageIndex.canonicalize("http://h"));
+    }
+    @Test
+    public void normalizesPercentEscapes() {
+        // Unreserved characters are decoded, others are upper cased.
+        assertEquals("http://h/my-file%20name%2Fx~1.txt?q=a%2Bb",
+                SavedPageIndex.canonicalize("http://h/my%2dfile%20name%2fx%7E1.txt?q=a%2bb"));
+        assertEquals("http://h/100%",
+                SavedPageIndex.canonicalize("http://h/100%"));
+    }
+    @Test
+    public void returnsNonUrlsTrimmed() {
+        assertEquals("not a url", SavedPageIndex.canonicalize("  not a url "));
+        assertEquals(null, SavedPageIndex.canonicalize(null));
+    }
+    @Test
+    public void matchesEquivalentUrls() {
+        SavedPageIndex index = new SavedPageIndex();
+        index.add("http://Sakai.example.edu:80/access/a%2dfile.pdf#top", "files/a-file.pdf");
+        assertTrue(index.contains("http://sakai.example.edu/access/./a-file.pdf"));
+        assertEquals("files/a-file.pdf",
+                index.getLocalPath("http://sakai.example.edu/access/a-file.pdf"));
+        assertFalse(index.claim("http://sakai.example.edu/access/a-file.pdf", "other.pdf"));
+        assertTrue(index.claim("http://sakai.example.edu/access/b-file.pdf", "b.pdf"));
+    }
+}
@@ -0,0 +1,100 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingDownloaderTest {
+
+    private static final byte[] IMAGE = { (byte) 0x89, 'P', 'N', 'G', 1, 2, 3 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private WebClient webClient;
+    private StreamingDownloader downloader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                boolean image = exchange.getRequestURI().getPath().endsWith(".png");
+                byte[] body = image ? IMAGE : "<html>Login</html>".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type",
+                        image ? "image/png" : "text/html;charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        webClient = new WebClient();
+        downloader = new StreamingDownloader(webClient, 2);
+    }
+    @After
+    public void tearDown() {
+        downloader.close();
+        webClient.close();
+        server.stop(0);
+    }
+    private WebRequest request( String path ) throws IOException {
+        return new WebRequest(new URL("http://127.0.0.1:" + server.getAddress().getPort() + path));
+    }
+    private static final StreamingDownloader.ContentCheck IMAGES_ONLY =
+            new StreamingDownloader.ContentCheck() {
+                public void check( String type ) throws IOException {
+                    if ( ! PageSaver.isImageContentType(type) ) {
+                        throw new IOException("Not an image: " + type);
+                    }
+                }
+            };
+
+    @Test
+    public void savesCheckedContent() throws IOException {
+        File file = new File(folder.getRoot(), "images/a.png");
+        ArchiveManifest manifest = new ArchiveManifest(folder.getRoot());
+        long size = downloader.download(webClient, request("/a.png"), file, manifest, IMAGES_ONLY);
+        assertEquals(IMAGE.length, size);
+        assertArrayEquals(IMAGE, Files.readAllBytes(file.toPath()));
+        assertEquals(IMAGE.length, manifest.get(request("/a.png").getUrl()).getSize());
+        assertFalse(new File(file.getParentFile(), "a.png" + StreamingDownloader.PART_SUFFIX).exists());
+    }
+    @Test
+    public void rejectedContentLeavesExistingFile() throws IOException {
+        File file = folder.newFile("b.png");
+        Files.write(file.toPath(), IMAGE);
+        try {
+            downloader.download(webClient, request("/login"), file, null, IMAGES_ONLY);
+            fail("HTML saved as an image");
+        } catch ( IOException e ) {
+            assertTrue(e.getMessage().startsWith("Not an image"));
+        }
+        assertArrayEquals(IMAGE, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(folder.getRoot(), "b.png" + StreamingDownloader.PART_SUFFIX).exists());
+    }
+}
@@ -0,0 +1,40 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebWindow;
+
+public class WebClientPoolTest {
+
+    @Test
+    public void releaseResetsClient() throws Exception {
+        URL site = new URL("http://sakai.example.edu/portal/site/abc");
+        URL tool = new URL("http://sakai.example.edu/portal/tool/123");
+        MockWebConnection connection = new MockWebConnection();
+        connection.setResponse(site, "<html><body>Site</body></html>");
+        connection.setResponse(tool, "<html><body>Tool</body></html>");
+        WebClient client = new WebClient();
+        client.getOptions().setJavaScriptEnabled(false);
+        client.setWebConnection(connection);
+        client.getPage(site);
+        client.getPage(tool);
+        client.openWindow(tool, "popup");
+
+        WebClientPool pool = new WebClientPool(null, 1);
+        pool.release(client);
+        assertSame(client, pool.checkout());
+
+        assertEquals(1, client.getTopLevelWindows().size());
+        WebWindow window = client.getCurrentWindow();
+        assertEquals(WebClient.URL_ABOUT_BLANK, window.getEnclosedPage().getUrl());
+        assertEquals(1, window.getHistory().getLength());
+        client.close();
+    }
+}
@@ -0,0 +1,92 @@
+package org.sakaiproject.util.archiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WebDavListerTest {
+
+    private static final URI BASE = URI.create("http://sakai.test/dav/SITE1/");
+
+    private static List<WebDavLister.Entry> parse( String xml ) throws IOException {
+        return WebDavLister.parse(BASE, new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void parsesCollectionsAndFiles() throws IOException {
+        List<WebDavLister.Entry> entries = parse(
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                "<d:multistatus xmlns:d=\"DAV:\">" +
+                "<d:response><d:href>/dav/SITE1/</d:href><d:propstat><d:prop>" +
+                "<d:resourcetype><d:collection/></d:resourcetype>" +
+                "</d:prop></d:propstat></d:response>" +
+                "<d:response><d:href> /dav/SITE1/Week%201/notes.pdf </d:href><d:propstat><d:prop>" +
+                "<d:resourcetype/><d:getcontentlength>1234</d:getcontentlength>" +
+                "<d:getetag>\"abc\"</d:getetag>" +
+                "<d:getlastmodified>Wed, 02 Sep 2015 13:07:00 GMT</d:getlastmodified>" +
+                "</d:prop></d:propstat></d:response>" +
+                "<d:response><d:href>http://sakai.test/dav/SITE1/a.txt</d:href><d:propstat><d:prop>" +
+                "<d:getcontentlength>unknown</d:getcontentlength>" +
+                "</d:prop></d:propstat></d:response>" +
+                "</d:multistatus>");
+        assertEquals(3, entries.size());
+
+        WebDavLister.Entry root = entries.get(0);
+        assertEquals(BASE, root.getUri());
+        assertTrue(root.isCollection());
+        assertEquals(-1, root.getSize());
+
+        WebDavLister.Entry file = entries.get(1);
+        assertEquals("http://sakai.test/dav/SITE1/Week%201/notes.pdf", file.getUri().toString());
+        assertFalse(file.isCollection());
+        assertEquals(1234, file.getSize());
+        assertEquals("\"abc\"", file.getEtag());
+        assertEquals("Wed, 02 Sep 2015 13:07:00 GMT", file.getLastModified());
+
+        WebDavLister.Entry other = entries.get(2);
+        assertEquals("http://sakai.test/dav/SITE1/a.txt", other.getUri().toString());
+        assertEquals(-1, other.getSize());
+        assertNull(other.getEtag());
+    }
+    @Test
+    public void ignoresOtherNamespacesAndMissingHrefs() throws IOException {
+        List<WebDavLister.Entry> entries = parse(
+                "<multistatus xmlns=\"DAV:\" xmlns:x=\"urn:other\">" +
+                "<response><propstat><prop><getcontentlength>1</getcontentlength>" +
+                "</prop></propstat></response>" +
+                "<x:response><x:href>/dav/SITE1/x</x:href></x:response>" +
+                "<response><href>b.txt</href></response>" +
+                "</multistatus>");
+        assertEquals(1, entries.size());
+        assertEquals("http://sakai.test/dav/SITE1/b.txt", entries.get(0).getUri().toString());
+    }
+    @Test
+    public void rejectsDoctypes() {
+        try {
+            parse("<?xml version=\"1.0\"?><!DOCTYPE m [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>" +
+                  "<m:multistatus xmlns:m=\"DAV:\"><m:response><m:href>&e;</m:href>" +
+                  "</m:response></m:multistatus>");
+            fail("DOCTYPE accepted");
+        } catch ( IOException e ) {
+            assertTrue(e.getMessage().startsWith("Invalid PROPFIND response"));
+        }
+    }
+    @Test
+    public void rejectsInvalidXml() {
+        try {
+            parse("<html><body>Login</body>");
+            fail("Invalid XML accepted");
+        } catch ( IOException e ) {
+            assertTrue(e.getMessage().startsWith("Invalid PROPFIND response"));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+public class AssignmentsParserTest {
+
+    private static final String URL = "http://sakai.test/portal/tool/assignments";
+
+    private WebClient webClient;
+    private MockWebConnection connection;
+
+    @Before
+    public void setUp() {
+        webClient = new WebClient();
+        webClient.getOptions().setCssEnabled(false);
+        webClient.getOptions().setJavaScriptEnabled(false);
+        connection = new MockWebConnection();
+        webClient.setWebConnection(connection);
+    }
+    @After
+    public void tearDown() {
+        webClient.close();
+    }
+    private HtmlPage load( String body ) throws Exception {
+        connection.setResponse(new URL(URL), "<html><body>" + body + "</body></html>");
+        return webClient.getPage(URL);
+    }
+
+    @Test
+    public void acceptsExpandedPage() throws Exception {
+        HtmlPage page = load("<h3>Submission A1-S2</h3>" +
+                "<a href='#'><img src='/library/image/expand.gif' style='display: none'/></a>" +
+                "<a href='#'><img src='/library/image/collapse.gif'/></a>");
+        assertTrue(AssignmentsParser.isSubPage(page, "A1-S2"));
+    }
+    @Test
+    public void rejectsListViews() throws Exception {
+        HtmlPage page = load("<select id='view'><option>lisofass1</option></select>" +
+                "<a href='/portal/tool/x?assignmentId=A1-S2&amp;panel=Main'>A1</a>");
+        assertFalse(AssignmentsParser.isSubPage(page, "A1-S2"));
+        page = load("<a href='/portal/tool/x?assignmentId=A1-S2&amp;" +
+                "sakai_action=doView_assignment'>A1</a>");
+        assertFalse(AssignmentsParser.isSubPage(page, "A1-S2"));
+    }
+    @Test
+    public void rejectsCollapsedPage() throws Exception {
+        HtmlPage page = load("<h3>Submission A1-S2</h3>" +
+                "<a href='#'><img src='/library/image/expand.gif'/></a>");
+        assertFalse(AssignmentsParser.isSubPage(page, "A1-S2"));
+    }
+    @Test
+    public void rejectsOtherEntrysPage() throws Exception {
+        HtmlPage page = load("<h3>Submission A1-S3</h3>");
+        assertFalse(AssignmentsParser.isSubPage(page, "A1-S2"));
+    }
+}
@@ -0,0 +1,83 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+public class ForumsParserTest {
+
+    private static String link( String messageId, String text ) {
+        return "<a href=\"#\" onclick=\"document.forms['msgForum']['messageId'].value='" +
+               messageId + "';document.forms['msgForum'].submit();\">" + text + "</a>";
+    }
+
+    @Test
+    public void addsOneTargetBeforeEachThreadsFirstLink() {
+        Map<String,String> anchors = new HashMap<String,String>();
+        anchors.put("11", "thread-11");
+        anchors.put("22", "thread-22");
+        String html = "<div>" + link("11", "One") + link("33", "Reply") +
+                      link("11", "One again") + link("22", "Two") + "</div>";
+        assertEquals("<div><a name='thread-11'></a>" + link("11", "One") + link("33", "Reply") +
+                     link("11", "One again") + "<a name='thread-22'></a>" + link("22", "Two") +
+                     "</div>",
+                     ForumsParser.addThreadTargets(html, anchors));
+    }
+    @Test
+    public void leavesPageWithoutThreadsUnchanged() {
+        String html = "<div>" + link("33", "Reply") + "</div>";
+        assertSame(html, ForumsParser.addThreadTargets(html, null));
+        assertSame(html, ForumsParser.addThreadTargets(html, new HashMap<String,String>()));
+        Map<String,String> anchors = new HashMap<String,String>();
+        anchors.put("11", "thread-11");
+        assertEquals(html, ForumsParser.addThreadTargets(html, anchors));
+    }
+    @Test
+    public void flatViewNeedsEveryThreadsMessage() throws Exception {
+        String topic = "<form id='msgForum'><table id='msgForum:messagesInHierDataTable'>" +
+                "<tr><td>" + link("11", "One") + "</td></tr>" +
+                "<tr><td>" + link("22", "Two") + "</td></tr></table></form>";
+        String flat = "<form id='msgForum'>" +
+                "<div class='message' id='msgForum:msg11'>" + link("11", "One") + "Body</div>" +
+                "<div class='message' id='msgForum:msg22'>" + link("22", "Two") + "Body</div>" +
+                "</form>";
+        String partial = "<form id='msgForum'>" +
+                "<div class='message' id='msgForum:msg11'>" + link("11", "One") + "Body</div>" +
+                link("22", "Two") + "</form>";
+        WebClient webClient = new WebClient();
+        try {
+            webClient.getOptions().setJavaScriptEnabled(false);
+            MockWebConnection connection = new MockWebConnection();
+            webClient.setWebConnection(connection);
+            connection.setResponse(new URL("http://sakai.test/topic"), page(topic));
+            connection.setResponse(new URL("http://sakai.test/flat"), page(flat));
+            connection.setResponse(new URL("http://sakai.test/partial"), page(partial));
+            HtmlPage topicPage = webClient.getPage("http://sakai.test/topic");
+            HtmlPage flatPage = webClient.getPage("http://sakai.test/flat");
+            HtmlPage partialPage = webClient.getPage("http://sakai.test/partial");
+
+            assertFalse(ForumsParser.isFlatView(topicPage, Arrays.asList("11", "22")));
+            assertTrue(ForumsParser.isFlatView(flatPage, Arrays.asList("11", "22")));
+            assertFalse(ForumsParser.isFlatView(partialPage, Arrays.asList("11", "22")));
+            assertTrue(ForumsParser.isThreadPage(partialPage, "11"));
+            assertFalse(ForumsParser.isThreadPage(topicPage, "11"));
+        } finally {
+            webClient.close();
+        }
+    }
+    private static String page( String body ) {
+        return "<html><body>" + body + "</body></html>";
+    }
+}
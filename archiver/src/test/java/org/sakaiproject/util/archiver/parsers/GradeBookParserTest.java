@@ -0,0 +1,42 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class GradeBookParserTest {
+
+    @Test
+    public void readsPlainRows() throws IOException {
+        Reader in = new StringReader("Student ID,Name,Quiz 1\r\njs1,\"Smith, Jane\",9.5\r\n");
+        assertEquals(Arrays.asList("Student ID", "Name", "Quiz 1"), GradeBookParser.readCsvRow(in));
+        assertEquals(Arrays.asList("js1", "Smith, Jane", "9.5"), GradeBookParser.readCsvRow(in));
+        assertNull(GradeBookParser.readCsvRow(in));
+    }
+    @Test
+    public void readsQuotesAndLineBreaksInFields() throws IOException {
+        Reader in = new StringReader("\"say \"\"hi\"\"\",\"two\nlines\",\"\"\nlast");
+        assertEquals(Arrays.asList("say \"hi\"", "two\nlines", ""), GradeBookParser.readCsvRow(in));
+        assertEquals(Arrays.asList("last"), GradeBookParser.readCsvRow(in));
+        assertNull(GradeBookParser.readCsvRow(in));
+    }
+    @Test
+    public void keepsEmptyFields() throws IOException {
+        Reader in = new StringReader(",a,,\n");
+        assertEquals(Arrays.asList("", "a", "", ""), GradeBookParser.readCsvRow(in));
+    }
+    @Test
+    public void skipsBlankLines() throws IOException {
+        Reader in = new StringReader("\r\n\na\n\r\n\nb\n\n");
+        assertEquals(Arrays.asList("a"), GradeBookParser.readCsvRow(in));
+        assertEquals(Arrays.asList("b"), GradeBookParser.readCsvRow(in));
+        assertNull(GradeBookParser.readCsvRow(in));
+        assertNull(GradeBookParser.readCsvRow(new StringReader("")));
+    }
+}
@@ -0,0 +1,79 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class QtiRendererTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String ITEM =
+            "<item title='Q1'><presentation>" +
+            "<material><mattext texttype='text/plain'><![CDATA[2 < 3?]]></mattext></material>" +
+            "<response_lid ident='r'><render_choice>" +
+            "<response_label ident='A'><material>" +
+            "<mattext texttype='text/html'><![CDATA[<b>True</b> ✓]]></mattext>" +
+            "</material></response_label>" +
+            "<response_label ident='B'><material>" +
+            "<mattext texttype='text/plain'>False &amp; wrong</mattext>" +
+            "</material></response_label>" +
+            "</render_choice></response_lid></presentation></item>";
+
+    private File write( String xml ) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(xml.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void rendersAssessment() throws IOException {
+        File qti = write("<?xml version='1.0' encoding='UTF-8'?>" +
+                "<questestinterop><assessment title='Quiz &amp; Test'><section>" + ITEM +
+                "</section></assessment></questestinterop>");
+        String html = QtiRenderer.render(qti, "Fallback", "assessment-1-qti.xml");
+        assertTrue(html.contains("<title>Quiz &amp; Test</title>"));
+        assertFalse(html.contains("Fallback"));
+        assertTrue(html.contains("<a href=\"assessment-1-qti.xml\">QTI export (XML)</a>"));
+        assertTrue(html.contains("<h4>Q1</h4>"));
+        // The question, not the choices, is in the question text.
+        assertTrue(html.contains("<div>2 &lt; 3?</div><ul>"));
+        // HTML material is kept, non-ASCII characters are encoded.
+        assertTrue(html.contains("<li><b>True</b> &#10003;</li>"));
+        assertTrue(html.contains("<li>False &amp; wrong</li>"));
+        assertFalse(html.contains("No questions."));
+    }
+    @Test
+    public void rendersEmptyPool() throws IOException {
+        File qti = write("<questestinterop><objectbank ident='p1'/></questestinterop>");
+        String html = QtiRenderer.render(qti, "Pool <1>", "question-pool-1-qti.xml");
+        assertTrue(html.contains("<h3>Pool &lt;1&gt;</h3>"));
+        assertTrue(html.contains("<p>No questions.</p>"));
+    }
+    @Test
+    public void rejectsDoctypes() throws IOException {
+        File qti = write("<?xml version='1.0'?><!DOCTYPE questestinterop [" +
+                "<!ENTITY e SYSTEM 'file:///etc/passwd'>]>" +
+                "<questestinterop><assessment title='&e;'/></questestinterop>");
+        try {
+            QtiRenderer.render(qti, "Quiz", "quiz.xml");
+            fail("DOCTYPE accepted");
+        } catch ( IOException e ) {
+            assertTrue(e.getMessage().startsWith("Invalid QTI file"));
+        }
+    }
+}
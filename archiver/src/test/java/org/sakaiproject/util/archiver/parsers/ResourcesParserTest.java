@@ -0,0 +1,93 @@
+package org.sakaiproject.util.archiver.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sakaiproject.util.archiver.Archiver;
+
+public class ResourcesParserTest {
+
+    private static final String FOLDER = "access/content/group/site1/docs/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ResourcesParser parser;
+    private File site;
+
+    @Before
+    public void setUp() throws IOException {
+        Properties options = new Properties();
+        options.setProperty(Archiver.ARCHIVE_DIR_BASE, folder.getRoot().getPath());
+        options.setProperty(Archiver.SAKAI_BASE_URL, "http://sakai.test/portal/");
+        options.setProperty(Archiver.OUTPUT_VERBOSITY, "0");
+        Archiver archiver = new Archiver("site1", null, null);
+        archiver.setOptions(options);
+        parser = new ResourcesParser();
+        parser.setArchiver(archiver);
+        site = new File(folder.getRoot(), "site1");
+    }
+    private File zip( String... names ) throws IOException {
+        File zip = folder.newFile();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        for ( String name: names ) {
+            out.putNextEntry(new ZipEntry(name));
+            if ( ! name.endsWith("/") ) {
+                out.write(name.getBytes("UTF-8"));
+            }
+            out.closeEntry();
+        }
+        out.close();
+        return zip;
+    }
+    private int expand( File zip ) throws IOException {
+        return parser.expandZip(zip, FOLDER, new HashMap<String,URL>());
+    }
+    private boolean saved( String path ) {
+        return new File(site, FOLDER + path).isFile();
+    }
+
+    @Test
+    public void stripsFolderWhenEveryEntryIsUnderIt() throws IOException {
+        assertEquals(2, expand(zip("docs/", "docs/a.pdf", "docs/docs/b.pdf")));
+        assertTrue(saved("a.pdf"));
+        assertTrue(saved("docs/b.pdf"));
+        assertTrue(parser.getArchiver().getSavedPages().contains(
+                "http://sakai.test/" + FOLDER + "a.pdf"));
+    }
+    @Test
+    public void keepsSubFolderWithFolderName() throws IOException {
+        assertEquals(2, expand(zip("a.pdf", "docs/b.pdf")));
+        assertTrue(saved("a.pdf"));
+        assertTrue(saved("docs/b.pdf"));
+        assertFalse(saved("b.pdf"));
+    }
+    @Test
+    public void skipsEntriesOutsideArchive() throws IOException {
+        assertEquals(1, expand(zip("a.pdf", "../../../../../../evil.txt")));
+        assertTrue(saved("a.pdf"));
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+    @Test(expected = IOException.class)
+    public void rejectsNonZip() throws IOException {
+        File html = folder.newFile();
+        FileOutputStream out = new FileOutputStream(html);
+        out.write("<html>Login</html>".getBytes("UTF-8"));
+        out.close();
+        expand(html);
+    }
+}
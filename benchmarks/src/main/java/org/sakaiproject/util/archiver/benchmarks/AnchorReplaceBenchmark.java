@@ -0,0 +1,52 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sakaiproject.util.archiver.ParsingUtils;
+import org.sakaiproject.util.archiver.benchmarks.Fixtures.Fixture;
+
+/**
+ * ParsingUtils.replaceMatchingAnchors with the patterns and url changes the
+ * Samigo (scores) and Forums (topic) parsers use, and
+ * replaceMatchingAnchorsById as the Gradebook parser uses it.  Reported as
+ * average time since a call takes seconds on the larger pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AnchorReplaceBenchmark {
+
+    @Param({ Fixtures.SAMIGO_SCORES, Fixtures.FORUMS_TOPIC, Fixtures.GRADEBOOK_ALL_GRADES })
+    public String fixture;
+
+    private Fixture page;
+
+    @Setup
+    public void setup() throws Exception {
+        page = Fixtures.load(fixture);
+    }
+    @Benchmark
+    public String replaceMatchingAnchors() {
+        if ( page.getAnchorPrefix() == null ) {
+            return ParsingUtils.replaceMatchingAnchorsById(page.getHtml(),
+                    page.getAnchorChanges());
+        }
+        return ParsingUtils.replaceMatchingAnchors(page.getHtml(),
+                page.getAnchorChanges(), page.getAnchorPrefix(),
+                page.getAnchorSuffix());
+    }
+}
@@ -0,0 +1,58 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.PageSaver;
+
+/**
+ * Archivers and PageSavers set up for benchmarks: default options, an
+ * archive directory under the temp directory and no network access.
+ */
+public class BenchmarkArchivers {
+
+    public static final String SITE = "benchmark-site";
+    public static final String SITE_HOST = "sakai.example.edu";
+
+    /**
+     * Create an Archiver with the default options writing to a new
+     * temporary directory.
+     *
+     * @return The archiver.
+     * @throws IOException
+     */
+    public static Archiver create() throws IOException {
+        File base = File.createTempFile("sakai-archiver-bench", "");
+        base.delete();
+        base.mkdirs();
+        Archiver archiver = new Archiver(SITE, null, null);
+        archiver.loadOptions(null);
+        archiver.setArchiveBasePath(base.getAbsolutePath() + "/");
+        archiver.setSiteHost(SITE_HOST);
+        return archiver;
+    }
+    /**
+     * Remove an archiver's temporary directory.
+     *
+     * @param archiver
+     */
+    public static void delete( Archiver archiver ) {
+        FileUtils.deleteQuietly(new File(archiver.getArchiveBasePath()));
+    }
+    /**
+     * A PageSaver that does not download anything, so the benchmarks time
+     * the parsing and bookkeeping only.
+     */
+    public static class OfflinePageSaver extends PageSaver {
+        public OfflinePageSaver( Archiver archiver ) {
+            super(archiver);
+        }
+        @Override
+        public void downloadImage( URL url, File file ) throws IOException {
+            // Nothing downloaded.
+        }
+    }
+}
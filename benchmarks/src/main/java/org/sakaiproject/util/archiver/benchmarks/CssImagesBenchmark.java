@@ -0,0 +1,56 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.PageSaver;
+import org.sakaiproject.util.archiver.SavedPageIndex;
+
+/**
+ * PageSaver.parseCssImages on Sakai's tool_base.css.  Downloads are stubbed
+ * out and each call starts with an empty SavedPageIndex, so every url(...)
+ * is resolved, claimed and has its directory created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CssImagesBenchmark {
+
+    private String css;
+    private URL cssUrl;
+    private Archiver archiver;
+    private PageSaver saver;
+
+    @Setup
+    public void setup() throws Exception {
+        css = Fixtures.css();
+        cssUrl = new URL("https://" + BenchmarkArchivers.SITE_HOST +
+                "/library/skin/tool_base.css");
+        archiver = BenchmarkArchivers.create();
+        saver = new BenchmarkArchivers.OfflinePageSaver(archiver);
+    }
+    @TearDown
+    public void tearDown() {
+        BenchmarkArchivers.delete(archiver);
+    }
+    @Benchmark
+    public void parseCssImages() throws Exception {
+        archiver.setSavedPages(new SavedPageIndex());
+        saver.parseCssImages(css, "library/skin/tool_base.css", cssUrl);
+    }
+}
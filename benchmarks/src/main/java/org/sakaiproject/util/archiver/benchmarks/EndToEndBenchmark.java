@@ -0,0 +1,242 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.RunMetrics;
+
+/**
+ * <p>Archives the stand-in site end to end and reports pages/sec, MB/sec and
+ * wall time.  A SakaiStandIn is started on a free port, then the Archiver
+ * is run against it (initialize, execute, finalize) for the warm up runs,
+ * which are not reported, and the measured runs.  Each run archives to a
+ * new temporary directory.</p>
+ *
+ * <pre>java -cp benchmarks.jar org.sakaiproject.util.archiver.benchmarks.EndToEndBenchmark
+ *     [--runs=5] [--warmup=2] [--latency=ms] [--bandwidth=bytes/sec]
+ *     [--recording=dir] [--site=id] [--options=archiver.properties]
+ *     [--option.name=value ...] [--breakdown=true]</pre>
+ *
+ * <p>--options and --option.[name] set archiver options (e.g.
+ * --option.parallel.tools=true).  sakai.base.url and archive.dir.base are
+ * always set for the stand-in.  --breakdown=true prints the last run's
+ * timing breakdown.</p>
+ *
+ * <p>MB/sec counts the bytes the archiver received: HtmlUnit's http phase
+ * plus the files streamed to disk.</p>
+ */
+public class EndToEndBenchmark {
+
+    /**
+     * The results of one run.
+     */
+    public static class Result {
+        private long wallNanos;
+        private long pages;
+        private long files;
+        private long failures;
+        private long bytes;
+        private String breakdown;
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+        public long getPages() {
+            return pages;
+        }
+        public long getFiles() {
+            return files;
+        }
+        public long getFailures() {
+            return failures;
+        }
+        public long getBytes() {
+            return bytes;
+        }
+        /** @return The run's RunMetrics timing breakdown. */
+        public String getBreakdown() {
+            return breakdown;
+        }
+        public double getSeconds() {
+            return wallNanos / 1000000000.0;
+        }
+        public double getPagesPerSecond() {
+            return pages / getSeconds();
+        }
+        public double getMegabytesPerSecond() {
+            return bytes / (1024.0 * 1024.0) / getSeconds();
+        }
+    }
+
+    private SakaiStandIn standIn;
+    private Properties options = new Properties();
+
+    /**
+     * @param standIn A started stand-in server.
+     * @param options Archiver options to add to the defaults.
+     */
+    public EndToEndBenchmark( SakaiStandIn standIn, Properties options ) {
+        this.standIn = standIn;
+        this.options.putAll(options);
+    }
+    /**
+     * Archive the stand-in site once.
+     *
+     * @return The run's results.
+     * @throws Exception If the archive failed.
+     */
+    public Result run() throws Exception {
+        File base = File.createTempFile("sakai-archiver-e2e", "");
+        base.delete();
+        base.mkdirs();
+        File optionsFile = new File(base, "archiver.properties");
+        Properties runOptions = new Properties();
+        runOptions.putAll(options);
+        runOptions.setProperty(Archiver.SAKAI_BASE_URL, standIn.getPortalURL());
+        runOptions.setProperty(Archiver.ARCHIVE_DIR_BASE, new File(base, "archive").getAbsolutePath() + "/");
+        OutputStream out = new FileOutputStream(optionsFile);
+        try {
+            runOptions.store(out, "End to end benchmark");
+        } finally {
+            out.close();
+        }
+
+        Archiver archiver = new Archiver(standIn.getSite(), "stand-in-session",
+                optionsFile.getAbsolutePath());
+        Result result = new Result();
+        long start = System.nanoTime();
+        try {
+            archiver.initialize();
+            archiver.execute();
+        } finally {
+            archiver.finalize();
+            result.wallNanos = System.nanoTime() - start;
+            FileUtils.deleteQuietly(base);
+        }
+        RunMetrics metrics = archiver.getMetrics();
+        result.breakdown = metrics.getReport();
+        for ( String tool: metrics.getTools() ) {
+            result.pages += metrics.getCount(tool, RunMetrics.PAGES_SAVED);
+            result.files += metrics.getCount(tool, RunMetrics.FILES_DOWNLOADED);
+            result.failures += metrics.getCount(tool, RunMetrics.FILES_FAILED);
+        }
+        for ( RunMetrics.Stat stat: metrics.getStats().values() ) {
+            if ( stat.getPhase().equals("http") || stat.getPhase().equals("download") ) {
+                result.bytes += stat.getBytes();
+            }
+        }
+        return result;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Map<String,String> arguments = SakaiStandIn.parseOptions(args);
+        Properties options = new Properties();
+        options.setProperty(Archiver.OUTPUT_VERBOSITY, String.valueOf(Archiver.ERROR));
+        options.setProperty(Archiver.RUN_REPORT, "false");
+        if ( arguments.containsKey("options") ) {
+            Archiver reader = new Archiver(null, null, null);
+            reader.loadOptions(arguments.get("options"));
+            for ( String name: reader.getOptions().stringPropertyNames() ) {
+                options.setProperty(name, reader.getOption(name));
+            }
+        }
+        for ( Map.Entry<String,String> argument: arguments.entrySet() ) {
+            if ( argument.getKey().startsWith("option.") ) {
+                options.setProperty(argument.getKey().substring("option.".length()),
+                        argument.getValue());
+            }
+        }
+        int runs = (int) SakaiStandIn.getLong(arguments, "runs", 5);
+        int warmup = (int) SakaiStandIn.getLong(arguments, "warmup", 2);
+        long latency = SakaiStandIn.getLong(arguments, "latency", 0);
+        long bandwidth = SakaiStandIn.getLong(arguments, "bandwidth", 0);
+
+        SakaiStandIn standIn = new SakaiStandIn(SakaiStandIn.loadRecording(arguments),
+                latency, bandwidth);
+        if ( arguments.containsKey("site") ) {
+            standIn.setSite(arguments.get("site"));
+        }
+        standIn.start(0);
+        System.out.println("Stand-in: " + standIn.getPortalURL() + standIn.getSite() +
+                "  latency: " + latency + " ms  bandwidth: " +
+                (bandwidth == 0 ? "unlimited" : bandwidth + " bytes/sec"));
+        EndToEndBenchmark benchmark = new EndToEndBenchmark(standIn, options);
+        List<Result> results = new ArrayList<Result>();
+        Result last = null;
+        try {
+            for ( int i = 0; i < warmup + runs; i++ ) {
+                boolean measured = i >= warmup;
+                Result result = benchmark.run();
+                System.out.println(String.format(Locale.US,
+                        "%s %2d: %8.3f s  %7.2f pages/sec  %8.2f MB/sec  " +
+                        "(%d pages, %d files, %d failures, %d bytes)",
+                        measured ? "Run   " : "Warmup", measured ? i - warmup + 1 : i + 1,
+                        result.getSeconds(), result.getPagesPerSecond(),
+                        result.getMegabytesPerSecond(), result.getPages(),
+                        result.getFiles(), result.getFailures(), result.getBytes()));
+                if ( measured ) {
+                    results.add(result);
+                }
+                last = result;
+            }
+        } finally {
+            standIn.stop();
+        }
+        if ( standIn.getNotFound() > 0 ) {
+            System.out.println("Requests with no route in the recording: " +
+                    standIn.getNotFound());
+        }
+        if ( last != null && Boolean.parseBoolean(arguments.get("breakdown")) ) {
+            System.out.println("Timing breakdown:");
+            System.out.print(last.getBreakdown());
+        }
+        System.out.print(summary(results));
+        System.exit(0);
+    }
+    /**
+     * Summarize the measured runs.
+     *
+     * @param results
+     * @return Mean, min and max of the wall time, pages/sec and MB/sec.
+     */
+    public static String summary( List<Result> results ) {
+        if ( results.isEmpty() ) {
+            return "No measured runs.\n";
+        }
+        double[] seconds = new double[results.size()];
+        double[] pages = new double[results.size()];
+        double[] mb = new double[results.size()];
+        for ( int i = 0; i < results.size(); i++ ) {
+            seconds[i] = results.get(i).getSeconds();
+            pages[i] = results.get(i).getPagesPerSecond();
+            mb[i] = results.get(i).getMegabytesPerSecond();
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "%-12s %10s %10s %10s%n", "", "mean", "min", "max"));
+        appendRow(summary, "wall s", seconds);
+        appendRow(summary, "pages/sec", pages);
+        appendRow(summary, "MB/sec", mb);
+        return summary.toString();
+    }
+    private static void appendRow( StringBuilder summary, String name, double[] values ) {
+        double total = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for ( double value: values ) {
+            total += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        summary.append(String.format(Locale.US, "%-12s %10.3f %10.3f %10.3f%n",
+                name, total / values.length, min, max));
+    }
+}
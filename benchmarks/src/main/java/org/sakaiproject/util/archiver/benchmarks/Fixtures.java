@@ -0,0 +1,218 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * <p>Sakai tool pages for the benchmarks, built from the templates in
+ * fixtures/ (trimmed captures of the real pages).  Each page template has a
+ * &lt;!-- ROWS --&gt; marker that is replaced with copies of its row
+ * template so the pages are the size of a large class:</p>
+ * <ul>
+ * <li>samigo-scores: Samigo Total Scores for 400 students.</li>
+ * <li>forums-topic: a forums topic with 60 messages.</li>
+ * <li>gradebook-all-grades: gradebook All Grades for 300 students and 25
+ *     items.</li>
+ * </ul>
+ * <p>Each fixture also has the link maps PageSaver's parse steps would
+ * build for it, and the anchor changes and patterns its ToolParser uses in
+ * modifySavedHtml.</p>
+ */
+public class Fixtures {
+
+    public static final String SAMIGO_SCORES = "samigo-scores";
+    public static final String FORUMS_TOPIC = "forums-topic";
+    public static final String GRADEBOOK_ALL_GRADES = "gradebook-all-grades";
+
+    public static final String ROWS_MARKER = "<!-- ROWS -->";
+
+    private static final String[] FIRST_NAMES = { "Ana", "Bo", "Chidi", "Dana",
+        "Emeka", "Fatima", "Guo", "Hana", "Ivan", "João", "Kai", "Lena",
+        "Mateo", "Nia", "Omar", "Priya", "Quinn", "Renée", "Sven", "Tariq" };
+    private static final String[] LAST_NAMES = { "Abbott", "Baker", "Chen",
+        "Diaz", "Eriksen", "Fischer", "García", "Haddad", "Ito", "Jones",
+        "Kowalski", "Larsen", "Müller", "Nguyen", "Okafor", "Patel" };
+
+    /**
+     * A page and the maps used to rewrite it.
+     */
+    public static class Fixture {
+        private String name;
+        private String html;
+        private Map<String,String> cssFiles = new LinkedHashMap<String,String>();
+        private Map<String,String> jsFiles = new LinkedHashMap<String,String>();
+        private Map<String,String> imgFiles = new LinkedHashMap<String,String>();
+        private Map<String,String> files = new LinkedHashMap<String,String>();
+        private Map<String,String> iframeFiles = new LinkedHashMap<String,String>();
+        private Map<String,String> anchorChanges = new LinkedHashMap<String,String>();
+        private String anchorPrefix;
+        private String anchorSuffix;
+
+        public String getName() {
+            return name;
+        }
+        public String getHtml() {
+            return html;
+        }
+        /** @return Local path to original href, as parseCss returns. */
+        public Map<String,String> getCssFiles() {
+            return cssFiles;
+        }
+        /** @return Local path to original src, as parseJavascript returns. */
+        public Map<String,String> getJsFiles() {
+            return jsFiles;
+        }
+        /** @return Local path to original src, as parseImages returns. */
+        public Map<String,String> getImgFiles() {
+            return imgFiles;
+        }
+        /** @return Local path to original href, as parseFiles returns. */
+        public Map<String,String> getFiles() {
+            return files;
+        }
+        public Map<String,String> getIframeFiles() {
+            return iframeFiles;
+        }
+        /** @return The parser's anchor id (or onclick value) to saved page map. */
+        public Map<String,String> getAnchorChanges() {
+            return anchorChanges;
+        }
+        /** @return The parser's replaceMatchingAnchors prefix (null for ById). */
+        public String getAnchorPrefix() {
+            return anchorPrefix;
+        }
+        public String getAnchorSuffix() {
+            return anchorSuffix;
+        }
+    }
+
+    /**
+     * Build a fixture.
+     *
+     * @param name SAMIGO_SCORES, FORUMS_TOPIC or GRADEBOOK_ALL_GRADES
+     * @return The fixture.
+     * @throws IOException
+     */
+    public static Fixture load( String name ) throws IOException {
+        Fixture fixture = new Fixture();
+        fixture.name = name;
+        String page = resource(name + ".html");
+        String row = resource(name + "-row.html");
+        StringBuilder rows = new StringBuilder();
+        if ( SAMIGO_SCORES.equals(name) ) {
+            for ( int i = 0; i < 400; i++ ) {
+                String id = String.valueOf(183200 + i * 7);
+                rows.append(fill(row, i, id));
+                fixture.anchorChanges.put(id, "samigo-4711-scores-student-" + id);
+            }
+            // SamigoParser SCORES_MAIN
+            fixture.anchorPrefix = "[<]a href=\"[#]\" " +
+                    "title[=]\"View Student Answer\"[^>]*" +
+                    "forms\\['editTotalResults'\\]\\['gradingData'\\]\\.value[=]\\'";
+            fixture.anchorSuffix = "\\'[^>]*[>]";
+        }
+        else if ( FORUMS_TOPIC.equals(name) ) {
+            for ( int i = 0; i < 60; i++ ) {
+                String id = String.valueOf(60772 + i * 3);
+                rows.append(fill(row, i, id));
+                fixture.anchorChanges.put(id,
+                        "forums-forum-1203-topic-5521-thread-" + id);
+            }
+            // ForumsParser TOPIC_PAGE
+            fixture.anchorPrefix = "[<]a\\s*[^>]*" +
+                    ".*document\\.forms\\[\\'msgForum\\'\\]\\[\\'" +
+                    "messageId\\'\\]\\.value\\=\\'";
+            fixture.anchorSuffix = "\\'[^>]*[>]";
+        }
+        else if ( GRADEBOOK_ALL_GRADES.equals(name) ) {
+            int items = 25;
+            StringBuilder headers = new StringBuilder();
+            StringBuilder cells = new StringBuilder();
+            for ( int j = 0; j < items; j++ ) {
+                headers.append("<th scope=\"col\"><a href=\"#\" onclick=\"document.forms['gbForm']['gbForm:_idcl'].value='gbForm:gradebookSpreadsheet:_idJsp")
+                    .append(60 + j).append("'; document.forms['gbForm'].submit(); return false;\" id=\"gbForm:gradebookSpreadsheet:_idJsp")
+                    .append(60 + j).append("\">Homework ").append(j + 1).append("</a></th>");
+                cells.append("<td class=\"gbCell\"><span id=\"gbForm:gradebookSpreadsheet:${n}:item")
+                    .append(j).append("\">").append(5 + j % 5).append("/10</span></td>");
+            }
+            page = page.replace("${headers}", headers);
+            row = row.replace("${cells}", cells);
+            for ( int i = 0; i < 300; i++ ) {
+                rows.append(fill(row, i, String.valueOf(i)));
+            }
+            // GradeBookParser MAIN_PAGE (used with replaceMatchingAnchorsById)
+            fixture.anchorChanges.put("gbForm:_idJsp2", "gradebook");
+            fixture.anchorChanges.put("gbForm:_idJsp6", "gradebook-allgrades");
+            fixture.anchorChanges.put("gbForm:_idJsp10", "gradebook-coursegrades");
+        }
+        else {
+            throw new IllegalArgumentException("Unknown fixture: " + name);
+        }
+        fixture.html = page.replace(ROWS_MARKER, rows);
+        findLinks(fixture);
+        return fixture;
+    }
+    /**
+     * Load the CSS fixture (a capture of Sakai's tool_base.css).
+     *
+     * @return The CSS.
+     * @throws IOException
+     */
+    public static String css() throws IOException {
+        return resource("tool_base.css");
+    }
+    private static String fill( String row, int n, String id ) {
+        String first = FIRST_NAMES[n % FIRST_NAMES.length];
+        String last = LAST_NAMES[(n / FIRST_NAMES.length) % LAST_NAMES.length];
+        return row.replace("${n}", String.valueOf(n))
+                  .replace("${id}", id)
+                  .replace("${user}", (first.charAt(0) + last).toLowerCase() + n)
+                  .replace("${name}", last + ", " + first)
+                  .replace("${parity}", n % 2 == 0 ? "odd" : "even")
+                  .replace("${indent}", String.valueOf(n % 4))
+                  .replace("${day}", String.valueOf(1 + n % 28))
+                  .replace("${mm}", String.format("%02d", n % 60));
+    }
+    /**
+     * Build the link maps PageSaver's parse steps would return for the page.
+     */
+    private static void findLinks( Fixture fixture ) {
+        String html = fixture.html;
+        Matcher m = Pattern.compile("<link href=\"([^\"]+)\"[^>]*text/css").matcher(html);
+        while ( m.find() ) {
+            fixture.cssFiles.put(localPath(m.group(1)), m.group(1));
+        }
+        m = Pattern.compile("<script[^>]*src=\"([^\"]+)\"").matcher(html);
+        while ( m.find() ) {
+            fixture.jsFiles.put(localPath(m.group(1)), m.group(1));
+        }
+        m = Pattern.compile("<img src=\"([^\"]+)\"").matcher(html);
+        while ( m.find() ) {
+            fixture.imgFiles.put(localPath(m.group(1)), m.group(1));
+        }
+        m = Pattern.compile("href=\"(/access/content/[^\"]+)\"").matcher(html);
+        while ( m.find() ) {
+            fixture.files.put(localPath(m.group(1)), m.group(1));
+        }
+    }
+    private static String localPath( String url ) {
+        return url.startsWith("/") ? url.substring(1) : url;
+    }
+    private static String resource( String name ) throws IOException {
+        InputStream in = Fixtures.class.getClassLoader().getResourceAsStream("fixtures/" + name);
+        if ( in == null ) {
+            throw new IOException("Missing fixture: " + name);
+        }
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sakaiproject.util.archiver.Archiver;
+import org.sakaiproject.util.archiver.PageSaver;
+import org.sakaiproject.util.archiver.benchmarks.Fixtures.Fixture;
+
+/**
+ * The HTML rewriting step of PageSaver.save: css, javascript, image and file
+ * links changed to local paths and the offline javascript and css added.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageRewriteBenchmark {
+
+    @Param({ Fixtures.SAMIGO_SCORES, Fixtures.FORUMS_TOPIC, Fixtures.GRADEBOOK_ALL_GRADES })
+    public String fixture;
+
+    private Fixture page;
+    private Archiver archiver;
+    private PageSaver saver;
+
+    @Setup
+    public void setup() throws Exception {
+        page = Fixtures.load(fixture);
+        archiver = BenchmarkArchivers.create();
+        saver = new BenchmarkArchivers.OfflinePageSaver(archiver);
+    }
+    @TearDown
+    public void tearDown() {
+        BenchmarkArchivers.delete(archiver);
+    }
+    @Benchmark
+    public String rewriteHtml() throws Exception {
+        return saver.rewriteHtml(page.getHtml(), page.getCssFiles(),
+                page.getJsFiles(), page.getImgFiles(), page.getFiles(),
+                page.getIframeFiles(), "../");
+    }
+}
@@ -0,0 +1,45 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sakaiproject.util.archiver.ParsingUtils;
+
+/**
+ * ParsingUtils.getQueryMap on the query strings the Assignments and Roster
+ * parsers split (one call per query string per operation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryMapBenchmark {
+
+    private String[] queries = {
+        "submissionId=/assignment/s/e3b1c9d2-4f56-4a78-9b0c-d1e2f3a4b5c6/" +
+            "7f3e2d1c-0b9a-4876-a5f4-e3d2c1b0a9f8&panel=Main&sakai_action=doGrade_submission",
+        "assignmentId=/assignment/a/e3b1c9d2-4f56-4a78-9b0c-d1e2f3a4b5c6/" +
+            "1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d&panel=Main&sakai_action=doView_submission",
+        "siteId=e3b1c9d2-4f56-4a78-9b0c-d1e2f3a4b5c6&size=thumb",
+        "panel=Main&sakai_action=doSort_grade_submission&criteria=submitted_time&view=",
+        "sakai_action=doZipDownload&collectionId=/group/e3b1c9d2-4f56-4a78-9b0c-d1e2f3a4b5c6/Week%206/"
+    };
+
+    @Benchmark
+    public void getQueryMap( Blackhole blackhole ) {
+        for ( String query: queries ) {
+            blackhole.consume(ParsingUtils.getQueryMap(query));
+        }
+    }
+}
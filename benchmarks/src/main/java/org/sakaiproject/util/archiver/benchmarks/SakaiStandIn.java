@@ -0,0 +1,401 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>A local stand-in for a Sakai server that serves a StandInRecording, so
+ * the archiver can be run (and timed) without a live Sakai or a real
+ * JSESSIONID.  Any cookie is accepted.</p>
+ *
+ * <p>Each response waits for the configured latency before the headers are
+ * sent and the body is written at no more than the configured bandwidth
+ * (per connection), to stand in for a remote server.</p>
+ *
+ * <p>PROPFIND requests are answered with 207 Multi-Status, so a route with
+ * a multistatus file stands in for Sakai's /dav/ view of the resources.</p>
+ *
+ * <p>Run it on its own with:</p>
+ * <pre>java -cp benchmarks.jar org.sakaiproject.util.archiver.benchmarks.SakaiStandIn
+ *     [--port=8080] [--latency=ms] [--bandwidth=bytes/sec] [--site=id] [--recording=dir]</pre>
+ * <p>and point sakai.base.url at http://localhost:[port]/portal/site/.</p>
+ */
+public class SakaiStandIn {
+
+    public static final String DEFAULT_SITE = "bench-site";
+    public static final int CHUNK_SIZE = 8192;
+    /** The status of a WebDAV PROPFIND response */
+    public static final int MULTI_STATUS = 207;
+
+    private StandInRecording recording;
+    private String site = DEFAULT_SITE;
+    private long latencyMillis;
+    private long bytesPerSecond;
+    private HttpServer server;
+    private ExecutorService executor;
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong bytesSent = new AtomicLong();
+    private AtomicLong notFound = new AtomicLong();
+    private ConcurrentMap<String,byte[]> generated = new ConcurrentHashMap<String,byte[]>();
+
+    /**
+     * @param recording The responses to serve.
+     * @param latencyMillis Delay before each response (0 for none).
+     * @param bytesPerSecond Bandwidth of each response (0 for unlimited).
+     */
+    public SakaiStandIn( StandInRecording recording, long latencyMillis,
+                         long bytesPerSecond ) {
+        this.recording = recording;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    /**
+     * Start serving on localhost.
+     *
+     * @param port The port (0 for any free port).
+     * @throws IOException
+     */
+    public void start( int port ) throws IOException {
+        // The headers and body are separate writes, so without TCP_NODELAY
+        // every response waits on a delayed ACK (~40 ms).  Read once, when
+        // the first server is created.
+        if ( System.getProperty("sun.net.httpserver.nodelay") == null ) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        server.createContext("/", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+    public void stop() {
+        if ( server != null ) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+    /**
+     * @return The server URL, e.g. http://127.0.0.1:8080
+     */
+    public String getBaseURL() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() +
+                ":" + server.getAddress().getPort();
+    }
+    /**
+     * @return The sakai.base.url option value for this server.
+     */
+    public String getPortalURL() {
+        return getBaseURL() + "/portal/site/";
+    }
+    protected void serve( HttpExchange exchange ) throws IOException {
+        requests.incrementAndGet();
+        String method = exchange.getRequestMethod().toUpperCase();
+        String path = exchange.getRequestURI().getPath();
+        Map<String,String> params = new HashMap<String,String>();
+        parseParams(exchange.getRequestURI().getRawQuery(), params);
+        if ( method.equals("POST") ) {
+            InputStream in = exchange.getRequestBody();
+            parseParams(IOUtils.toString(in, "UTF-8"), params);
+        }
+        else if ( method.equals("PROPFIND") ) {
+            // The requested properties are ignored; routes can match the depth.
+            IOUtils.toByteArray(exchange.getRequestBody());
+            String depth = exchange.getRequestHeaders().getFirst("Depth");
+            params.put("Depth", depth == null ? "infinity" : depth);
+        }
+        else if ( method.equals("HEAD") ) {
+            method = "GET";
+        }
+
+        StandInRecording.Match match = recording.match(method, path, params);
+        if ( match == null ) {
+            notFound.incrementAndGet();
+            send(exchange, 404, "text/html", "<html><body>Not found</body></html>".getBytes("UTF-8"));
+            return;
+        }
+        Map<String,String> values = match.getValues();
+        values.put("server", getBaseURL());
+        if ( ! values.containsKey("site") ) {
+            values.put("site", site);
+        }
+        String response = match.getResponse();
+        if ( response.startsWith(StandInRecording.REDIRECT) ) {
+            String location = StandInRecording.fill(
+                    response.substring(StandInRecording.REDIRECT.length()), values, false);
+            exchange.getResponseHeaders().set("Location",
+                    location.startsWith("/") ? getBaseURL() + location : location);
+            send(exchange, 302, "text/html", new byte[0]);
+            return;
+        }
+        String type = match.getRoute().getContentType();
+        byte[] body;
+        if ( response.startsWith(StandInRecording.BYTES) ) {
+            if ( type == null ) {
+                type = getContentType(path);
+            }
+            body = generate(Integer.parseInt(response.substring(
+                    StandInRecording.BYTES.length())), path, type);
+        }
+        else if ( response.equals(StandInRecording.EMPTY) ) {
+            body = new byte[0];
+            if ( type == null ) {
+                type = getContentType(path);
+            }
+        }
+        else {
+            if ( type == null ) {
+                type = getContentType(response);
+            }
+            try {
+                body = recording.getFile(response);
+            } catch ( IOException e ) {
+                notFound.incrementAndGet();
+                send(exchange, 404, "text/html", new byte[0]);
+                return;
+            }
+            if ( isText(type) ) {
+                body = StandInRecording.fill(new String(body, "UTF-8"), values, true)
+                        .getBytes("UTF-8");
+            }
+        }
+        send(exchange, method.equals("PROPFIND") ? MULTI_STATUS : 200, type, body);
+    }
+    private void send( HttpExchange exchange, int status, String type,
+                       byte[] body ) throws IOException {
+        if ( latencyMillis > 0 ) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type",
+                isText(type) && ! type.contains("charset") ? type + ";charset=UTF-8" : type);
+        boolean head = exchange.getRequestMethod().equalsIgnoreCase("HEAD");
+        // HttpServer closes the connection after a response with no length
+        // (-1), so empty bodies are sent chunked (0) to keep it alive.
+        exchange.sendResponseHeaders(status, head ? -1 : body.length);
+        if ( head || body.length == 0 ) {
+            return;
+        }
+        OutputStream out = exchange.getResponseBody();
+        if ( bytesPerSecond > 0 ) {
+            out = new ThrottledOutputStream(out, bytesPerSecond);
+        }
+        try {
+            for ( int i = 0; i < body.length; i += CHUNK_SIZE ) {
+                out.write(body, i, Math.min(CHUNK_SIZE, body.length - i));
+            }
+        } finally {
+            out.close();
+        }
+        bytesSent.addAndGet(body.length);
+    }
+    /**
+     * Make up file content.  The same path always gets the same bytes.
+     * Images are real images (of about the size asked for) since the
+     * archiver reads them to check them.
+     */
+    private byte[] generate( int size, String path, String type ) throws IOException {
+        byte[] content = generated.get(path);
+        if ( content != null ) {
+            return content;
+        }
+        Random random = new Random(path.hashCode());
+        String format = type.startsWith("image/") ? type.substring("image/".length()) : null;
+        if ( format != null && ImageIO.getImageWritersByMIMEType(type).hasNext() ) {
+            // Noise compresses poorly, so about 3 bytes per pixel.
+            int side = Math.max(1, (int) Math.sqrt(size / 3.0));
+            BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+            for ( int y = 0; y < side; y++ ) {
+                for ( int x = 0; x < side; x++ ) {
+                    image.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+            ImageIO.write(image, format, out);
+            content = out.toByteArray();
+        }
+        else {
+            content = new byte[size];
+            random.nextBytes(content);
+        }
+        generated.putIfAbsent(path, content);
+        return content;
+    }
+    private static void parseParams( String query, Map<String,String> params )
+            throws UnsupportedEncodingException {
+        if ( query == null || query.equals("") ) {
+            return;
+        }
+        for ( String param: query.split("&") ) {
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+    }
+    public static String getContentType( String name ) {
+        String ext = FilenameUtils.getExtension(name.split("\\?")[0]).toLowerCase();
+        if ( ext.equals("html") || ext.equals("htm") || ext.equals("jsf") || ext.equals("faces") ) {
+            return "text/html";
+        }
+        if ( ext.equals("css") ) {
+            return "text/css";
+        }
+        if ( ext.equals("js") ) {
+            return "application/javascript";
+        }
+        if ( ext.equals("xml") ) {
+            return "text/xml";
+        }
+        if ( ext.equals("png") || ext.equals("gif") ) {
+            return "image/" + ext;
+        }
+        if ( ext.equals("jpg") || ext.equals("jpeg") ) {
+            return "image/jpeg";
+        }
+        if ( ext.equals("pdf") ) {
+            return "application/pdf";
+        }
+        if ( ext.equals("") ) {
+            return "text/html";
+        }
+        return "application/octet-stream";
+    }
+    private static boolean isText( String type ) {
+        return type.startsWith("text/") || type.contains("javascript") || type.contains("xml");
+    }
+    /**
+     * Writes no faster than a set rate.
+     */
+    static class ThrottledOutputStream extends FilterOutputStream {
+        private long bytesPerSecond;
+        private long start = System.nanoTime();
+        private long written;
+
+        ThrottledOutputStream( OutputStream out, long bytesPerSecond ) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            out.write(b, off, len);
+            written += len;
+            long due = written * 1000000000L / bytesPerSecond;
+            long waitNanos = due - (System.nanoTime() - start);
+            if ( waitNanos > 0 ) {
+                try {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+    public long getRequests() {
+        return requests.get();
+    }
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+    /** @return Requests with no route (see the recording's routes.txt). */
+    public long getNotFound() {
+        return notFound.get();
+    }
+    public String getSite() {
+        return site;
+    }
+    public void setSite( String site ) {
+        this.site = site;
+    }
+    public StandInRecording getRecording() {
+        return recording;
+    }
+    /**
+     * Load the recording named by --recording (a directory) or the built in
+     * one.
+     *
+     * @param options The command line options.
+     * @return The recording.
+     * @throws IOException
+     */
+    public static StandInRecording loadRecording( Map<String,String> options )
+            throws IOException {
+        String dir = options.get("recording");
+        return dir == null ? new StandInRecording(StandInRecording.DEFAULT_RECORDING) :
+                new StandInRecording(new File(dir));
+    }
+    /**
+     * Parse --name=value arguments.
+     *
+     * @param args
+     * @return The options by name.
+     */
+    public static Map<String,String> parseOptions( String[] args ) {
+        Map<String,String> options = new HashMap<String,String>();
+        for ( String arg: args ) {
+            if ( ! arg.startsWith("--") ) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq),
+                    eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+    static long getLong( Map<String,String> options, String name, long defaultValue ) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static void main( String[] args ) throws IOException {
+        Map<String,String> options = parseOptions(args);
+        SakaiStandIn standIn = new SakaiStandIn(loadRecording(options),
+                getLong(options, "latency", 0), getLong(options, "bandwidth", 0));
+        if ( options.containsKey("site") ) {
+            standIn.setSite(options.get("site"));
+        }
+        standIn.start((int) getLong(options, "port", 8080));
+        System.out.println("Sakai stand-in serving site " + standIn.getSite() +
+                " at " + standIn.getPortalURL() + standIn.getSite());
+    }
+}
@@ -0,0 +1,295 @@
+package org.sakaiproject.util.archiver.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * <p>The recorded Sakai responses a SakaiStandIn serves.  A recording is a
+ * directory (or a classpath folder) with a routes.txt file and the response
+ * files it names.  Each line of routes.txt is a route:</p>
+ * <pre>
+ * METHOD path [name=value ...] response [content-type]
+ *
+ * GET  /portal/site/{site}      redirect:/portal/site/{site}/page/home
+ * GET  /portal/tool/{placement} sakai_action=doExpandall resources-expanded.html
+ * POST /messageforums-tool/jsp/discussionForum/message/dfAllMessages messageId={messageId} forums-thread.html
+ * GET  /access/content/group/{site}/{path*} bytes:262144
+ * PROPFIND /dav/{site}/ Depth=infinity dav-site.xml text/xml
+ * </pre>
+ * <ul>
+ * <li>{name} matches one path segment (or a non empty value) and {name*}
+ *     matches the rest of the path.  Captured values can be used in the
+ *     response name and in the response as ${name}.</li>
+ * <li>name=value conditions are matched against the query string and the
+ *     posted form (e.g. the JSF _idcl field or a hidden id field set by a
+ *     link's onclick).  PROPFIND requests also have a Depth parameter with
+ *     the Depth header (infinity if not sent).</li>
+ * <li>The response is a file in the recording, bytes:N for N bytes of
+ *     generated content (e.g. /access/content files), empty, or
+ *     redirect:path.</li>
+ * </ul>
+ * <p>The first matching route is used, so list specific routes first.  In
+ * html, css, javascript and xml responses ${server} is replaced with the
+ * stand-in's base URL, ${site} with the site id and ${name} with the route's
+ * captures.  Lines starting with # are comments.</p>
+ */
+public class StandInRecording {
+
+    public static final String ROUTES_FILE = "routes.txt";
+    /** The recording built into the benchmarks jar */
+    public static final String DEFAULT_RECORDING = "standin/";
+    public static final String REDIRECT = "redirect:";
+    public static final String BYTES = "bytes:";
+    public static final String EMPTY = "empty";
+
+    private static final Pattern CAPTURE = Pattern.compile("\\{(\\w+)(\\*?)\\}");
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{(\\w+)\\}");
+
+    private File directory;
+    private String classpathFolder;
+    private List<Route> routes = new ArrayList<Route>();
+    private Map<String,byte[]> files = new HashMap<String,byte[]>();
+
+    /**
+     * A route with its path and condition patterns.
+     */
+    public static class Route {
+        private String method;
+        private Pattern path;
+        private List<String> pathNames = new ArrayList<String>();
+        private Map<String,Pattern> conditions = new LinkedHashMap<String,Pattern>();
+        private Map<String,List<String>> conditionNames = new HashMap<String,List<String>>();
+        private String response;
+        private String contentType;
+
+        public String getMethod() {
+            return method;
+        }
+        public String getResponse() {
+            return response;
+        }
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * A route matched to a request.
+     */
+    public static class Match {
+        private Route route;
+        private Map<String,String> values;
+
+        public Match( Route route, Map<String,String> values ) {
+            this.route = route;
+            this.values = values;
+        }
+        public Route getRoute() {
+            return route;
+        }
+        /** @return The captured values. */
+        public Map<String,String> getValues() {
+            return values;
+        }
+        /** @return The response with the captures filled in. */
+        public String getResponse() {
+            return fill(route.getResponse(), values, false);
+        }
+    }
+
+    /**
+     * Load a recording from a directory.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public StandInRecording( File directory ) throws IOException {
+        this.directory = directory;
+        load();
+    }
+    /**
+     * Load a recording from the classpath.
+     *
+     * @param classpathFolder The folder, ending with / (e.g. DEFAULT_RECORDING).
+     * @throws IOException
+     */
+    public StandInRecording( String classpathFolder ) throws IOException {
+        this.classpathFolder = classpathFolder;
+        load();
+    }
+    private void load() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(open(ROUTES_FILE), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ( (line = in.readLine()) != null ) {
+                lineNumber++;
+                line = line.trim();
+                if ( line.equals("") || line.startsWith("#") ) {
+                    continue;
+                }
+                routes.add(parseRoute(line, lineNumber));
+            }
+        } finally {
+            in.close();
+        }
+    }
+    private Route parseRoute( String line, int lineNumber ) throws IOException {
+        String[] parts = line.split("\\s+");
+        if ( parts.length < 3 ) {
+            throw new IOException(ROUTES_FILE + " line " + lineNumber +
+                    ": expected METHOD path [name=value ...] response [content-type]");
+        }
+        Route route = new Route();
+        route.method = parts[0].toUpperCase();
+        route.path = compile(parts[1], route.pathNames);
+        int i = 2;
+        while ( i < parts.length && parts[i].contains("=") &&
+                ! parts[i].startsWith(REDIRECT) ) {
+            addCondition(route, parts[i]);
+            i++;
+        }
+        if ( i == parts.length ) {
+            throw new IOException(ROUTES_FILE + " line " + lineNumber + ": missing response");
+        }
+        route.response = parts[i];
+        if ( i + 1 < parts.length ) {
+            route.contentType = parts[i + 1];
+        }
+        return route;
+    }
+    private void addCondition( Route route, String condition ) {
+        int eq = condition.indexOf('=');
+        List<String> names = new ArrayList<String>();
+        route.conditions.put(condition.substring(0, eq),
+                compile(condition.substring(eq + 1), names));
+        route.conditionNames.put(condition.substring(0, eq), names);
+    }
+    /**
+     * Turn a route pattern into a regular expression, quoting everything
+     * but the captures.
+     */
+    private static Pattern compile( String pattern, List<String> names ) {
+        StringBuilder regex = new StringBuilder();
+        Matcher m = CAPTURE.matcher(pattern);
+        int last = 0;
+        while ( m.find() ) {
+            if ( m.start() > last ) {
+                regex.append(Pattern.quote(pattern.substring(last, m.start())));
+            }
+            names.add(m.group(1));
+            regex.append(m.group(2).equals("*") ? "(.*)" : "([^/?&]+)");
+            last = m.end();
+        }
+        if ( last < pattern.length() ) {
+            regex.append(Pattern.quote(pattern.substring(last)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+    /**
+     * Find the route for a request.
+     *
+     * @param method GET, POST, ...
+     * @param path The decoded request path.
+     * @param params The query string and form parameters.
+     * @return The match or null if no route matches.
+     */
+    public Match match( String method, String path, Map<String,String> params ) {
+        for ( Route route: routes ) {
+            if ( ! route.method.equals(method) ) {
+                continue;
+            }
+            Matcher m = route.path.matcher(path);
+            if ( ! m.matches() ) {
+                continue;
+            }
+            Map<String,String> values = new HashMap<String,String>();
+            for ( int i = 0; i < route.pathNames.size(); i++ ) {
+                values.put(route.pathNames.get(i), m.group(i + 1));
+            }
+            boolean matches = true;
+            for ( Map.Entry<String,Pattern> condition: route.conditions.entrySet() ) {
+                String value = params.get(condition.getKey());
+                Matcher cm = value == null ? null : condition.getValue().matcher(value);
+                if ( cm == null || ! cm.matches() ) {
+                    matches = false;
+                    break;
+                }
+                List<String> names = route.conditionNames.get(condition.getKey());
+                for ( int i = 0; i < names.size(); i++ ) {
+                    values.put(names.get(i), cm.group(i + 1));
+                }
+            }
+            if ( matches ) {
+                return new Match(route, values);
+            }
+        }
+        return null;
+    }
+    /**
+     * Get a response file's content.  Files are cached after the first read.
+     *
+     * @param name The file name in the recording.
+     * @return The content.
+     * @throws IOException If there is no such file.
+     */
+    public synchronized byte[] getFile( String name ) throws IOException {
+        byte[] content = files.get(name);
+        if ( content == null ) {
+            InputStream in = open(name);
+            try {
+                content = IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+            files.put(name, content);
+        }
+        return content;
+    }
+    private InputStream open( String name ) throws IOException {
+        if ( name.contains("..") ) {
+            throw new IOException("Invalid recording file: " + name);
+        }
+        if ( directory != null ) {
+            return new FileInputStream(new File(directory, name));
+        }
+        InputStream in = StandInRecording.class.getClassLoader()
+                .getResourceAsStream(classpathFolder + name);
+        if ( in == null ) {
+            throw new IOException("Missing recording file: " + classpathFolder + name);
+        }
+        return in;
+    }
+    /**
+     * Replace {name} (or ${name} in content) with values.
+     *
+     * @param template
+     * @param values
+     * @param content True to replace ${name}, false for {name}.
+     * @return The filled in string.  Unknown names are left as is.
+     */
+    public static String fill( String template, Map<String,String> values, boolean content ) {
+        Matcher m = (content ? VARIABLE : CAPTURE).matcher(template);
+        StringBuffer result = new StringBuffer(template.length() + 64);
+        while ( m.find() ) {
+            String value = values.get(m.group(1));
+            m.appendReplacement(result, Matcher.quoteReplacement(
+                    value == null ? m.group() : value));
+        }
+        m.appendTail(result);
+        return result.toString();
+    }
+}
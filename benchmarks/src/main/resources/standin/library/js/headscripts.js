@@ -0,0 +1,6 @@
+// Stand-in for Sakai's headscripts.js: the functions tool pages call.
+function setMainFrameHeight(id) {}
+function setFocus(elements) {}
+function collectTextInputs() { return []; }
+function disableIt() {}
+var focus_path = [];